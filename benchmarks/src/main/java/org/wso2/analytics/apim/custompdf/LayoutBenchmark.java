@@ -0,0 +1,77 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page layout computations, including the column auto-fit which measures every cell of the report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+    @Param({ "15", "1000", "10000", "100000" })
+    public int rows;
+
+    private UsageRows usageRows;
+
+    @Setup
+    public void setUp() {
+
+        usageRows = UsageRows.fromEvents(SyntheticEvents.create(rows));
+    }
+
+    @Benchmark
+    public List<Integer> recordsPerPage() {
+
+        return CustomPDFGenerator.getRecordsPerPage(rows);
+    }
+
+    @Benchmark
+    public int numberOfPages() {
+
+        return CustomPDFGenerator.getNumberOfPages(rows);
+    }
+
+    @Benchmark
+    public float[] autoFitColumns() throws IOException {
+
+        return ColumnFitter.fit(CustomPDFGenerator.COLUMN_HEADERS, PDType1Font.HELVETICA_BOLD, usageRows,
+                CustomPDFGenerator.TEXT_FONT, CustomPDFGenerator.FONT_SIZE, CustomPDFGenerator.TABLE_WIDTH);
+    }
+}
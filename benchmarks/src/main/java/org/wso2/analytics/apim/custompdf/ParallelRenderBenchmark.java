@@ -0,0 +1,88 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering all pages of a report with their content streams encoded on a pool of the given number of threads, 1
+ * being the sequential renderer. The speedup levels off at the number of cores of the machine, and attaching the
+ * pages to the document stays on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelRenderBenchmark {
+
+    @Param({ "1000", "30000" })
+    public int rows;
+
+    @Param({ "1", "2", "4", "8" })
+    public int parallelism;
+
+    private UsageRows usageRows;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        usageRows = UsageRows.fromEvents(SyntheticEvents.create(rows));
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public PDDocument render() throws IOException {
+
+        PDDocument document = new PDDocument();
+        try {
+            new ReportPageRenderer(CustomPDFGenerator.COLUMN_HEADERS, CustomPDFGenerator.COLUMN_WIDTHS,
+                    CustomPDFGenerator.MONTHLY_TITLE, "Marzo 2020", pool).render(document, usageRows, usageRows.getTotalRequestCount());
+            return document;
+        } finally {
+            document.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.analytics.apim.rest.api.report.reportgen.model.TableData;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drawing the table into a document and serializing it. Every invocation starts from a fresh document, so the
+ * numbers include no work of a previous invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({ "15", "1000", "10000", "100000" })
+    public int rows;
+
+    private UsageRows usageRows;
+    private TableData table;
+    private List<Integer> recordsPerPage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        usageRows = UsageRows.fromEvents(SyntheticEvents.create(rows));
+        table = CustomPDFGenerator.toTableData(usageRows);
+        recordsPerPage = CustomPDFGenerator.getRecordsPerPage(rows);
+    }
+
+    private static ReportPageRenderer newRenderer() {
+
+        return new ReportPageRenderer(CustomPDFGenerator.COLUMN_HEADERS, CustomPDFGenerator.COLUMN_WIDTHS,
+                CustomPDFGenerator.MONTHLY_TITLE, "Marzo 2020");
+    }
+
+    /**
+     * Empty document with all pages pre-allocated, as expected by the drawTableGrid and writeRowsContent helpers.
+     */
+    @State(Scope.Thread)
+    public static class Pages {
+
+        private PDDocument document;
+        private Map<Integer, PDPage> pageMap;
+
+        @Setup(Level.Invocation)
+        public void setUp(RenderBenchmark benchmark) {
+
+            document = new PDDocument();
+            pageMap = new HashMap<>();
+            int numberOfPages = CustomPDFGenerator.getNumberOfPages(benchmark.rows);
+            for (int i = 1; i <= numberOfPages; i++) {
+                PDPage page = new PDPage(PDPage.PAGE_SIZE_A4);
+                page.setRotation(90);
+                document.addPage(page);
+                pageMap.put(i, page);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+
+            document.close();
+        }
+    }
+
+    /**
+     * Fully rendered report document.
+     */
+    @State(Scope.Thread)
+    public static class Rendered {
+
+        private PDDocument document;
+
+        @Setup(Level.Invocation)
+        public void setUp(RenderBenchmark benchmark) throws IOException {
+
+            document = new PDDocument();
+            newRenderer().render(document, benchmark.usageRows, benchmark.usageRows.getTotalRequestCount());
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+
+            document.close();
+        }
+    }
+
+    @Benchmark
+    public PDDocument drawTableGrid(Pages pages) throws IOException {
+
+        CustomPDFGenerator.drawTableGrid(pages.document, pages.pageMap, recordsPerPage,
+                CustomPDFGenerator.COLUMN_WIDTHS, rows);
+        return pages.document;
+    }
+
+    @Benchmark
+    public PDDocument writeRowsContent(Pages pages) throws IOException {
+
+        CustomPDFGenerator.writeRowsContent(CustomPDFGenerator.COLUMN_HEADERS, CustomPDFGenerator.COLUMN_WIDTHS,
+                pages.document, pages.pageMap, table.getRows());
+        return pages.document;
+    }
+
+    @Benchmark
+    public PDDocument singlePassRender() throws IOException {
+
+        PDDocument document = new PDDocument();
+        try {
+            newRenderer().render(document, usageRows, usageRows.getTotalRequestCount());
+            return document;
+        } finally {
+            document.close();
+        }
+    }
+
+    @Benchmark
+    public PDDocument documentSave(Rendered rendered) throws IOException, COSVisitorException {
+
+        rendered.document.save(new NullOutputStream());
+        return rendered.document;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.analytics.apim.rest.api.report.exception.PDFReportException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole report download, from the aggregation query to the PDF bytes, with the query answered by a stub and the
+ * report cache disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dcustompdf.cache.enabled=false")
+public class ReportGenerationBenchmark {
+
+    @Param({ "15", "1000", "10000", "100000" })
+    public int rows;
+
+    @Setup
+    public void setUp() {
+
+        SiddhiRuntimePool.setQueryExecutor(new SyntheticEvents.StubQueryExecutor(SyntheticEvents.create(rows)));
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        SiddhiRuntimePool.setQueryExecutor(null);
+    }
+
+    @Benchmark
+    public long generateReport() throws IOException, PDFReportException {
+
+        InputStream pdf = new CustomPDFGenerator("2020", "03", "carbon.super").generateMonthlyRequestSummaryPDF();
+        try {
+            return IOUtils.skip(pdf, Long.MAX_VALUE);
+        } finally {
+            pdf.close();
+        }
+    }
+}
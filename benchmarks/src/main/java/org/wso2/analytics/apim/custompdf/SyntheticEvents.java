@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import io.siddhi.core.event.Event;
+
+import java.util.Random;
+
+/**
+ * Synthetic aggregation results and a query executor serving them, so that the generator runs without Siddhi.
+ */
+public final class SyntheticEvents {
+
+    private SyntheticEvents() {
+
+    }
+
+    /**
+     * Creates rows shaped like the result of the per-tenant aggregation query: a few dozen APIs with three versions
+     * each, many applications and owners in user@tenant form, ordered by descending request count.
+     *
+     * @param rows number of rows.
+     * @return the events.
+     */
+    public static Event[] create(int rows) {
+
+        Random random = new Random(rows);
+        Event[] events = new Event[rows];
+        long count = rows * 10L;
+        for (int i = 0; i < rows; i++) {
+            count -= random.nextInt(10);
+            events[i] = new Event(0, new Object[] { "PizzaShackAPI-" + (i % 40), "1.0." + (i % 3),
+                    "Application-" + (i % 5000), "subscriber" + (i % 3000) + "@carbon.super", Math.max(1, count) });
+        }
+        return events;
+    }
+
+    /**
+     * Query executor answering every query with the same events.
+     */
+    public static final class StubQueryExecutor implements AggregationQueryExecutor {
+
+        private final Event[] events;
+
+        public StubQueryExecutor(Event[] events) {
+
+            this.events = events;
+        }
+
+        @Override
+        public Event[] query(String onDemandQuery) {
+
+            return events;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import io.siddhi.core.event.Event;
+
+import java.io.IOException;
+
+/**
+ * Runs the on-demand aggregation queries of the reports. {@link SiddhiRuntimePool} is the implementation used by
+ * the dashboard; another one can be installed with {@link SiddhiRuntimePool#setQueryExecutor} to run the generator
+ * offline, e.g. from benchmarks.
+ */
+public interface AggregationQueryExecutor {
+
+    /**
+     * Runs an on-demand query.
+     *
+     * @param onDemandQuery the Siddhi on-demand query.
+     * @return the resulting events, or null if nothing matched.
+     * @throws IOException if the query cannot be run.
+     */
+    Event[] query(String onDemandQuery) throws IOException;
+}
@@ -0,0 +1,456 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import io.siddhi.core.event.Event;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.analytics.apim.rest.api.report.exception.PDFReportException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the monthly report of many tenants concurrently, writing one PDF per tenant into a directory.
+ *
+ * Reports run on a bounded executor: at most {@code parallelism} reports run at once and at most
+ * {@code queueCapacity} more wait, further submissions block until a slot frees up. Virtual threads are used when
+ * the JVM provides them and {@link ReportConfig#isBatchVirtualThreadsEnabled()} is set. A report that runs longer
+ * than the per-tenant timeout is reported as timed out and its file is not written; its temporary file is removed
+ * before the run returns even if the report is still running. It is interrupted, so it stops before rendering or at
+ * its next page and does not add its PDF to the {@link ReportCache}.
+ *
+ * With {@link ReportConfig#isBatchSingleQueryEnabled()} the usage of all tenants is aggregated by a single query
+ * up front, so the monthly aggregation is scanned once rather than once per tenant; the per-tenant timeout then
+ * only covers rendering. That query is skipped for a closed month with a {@link SnapshotStore} snapshot, and its
+ * result is saved as the snapshot of a closed month that has none.
+ */
+public class BatchReportGenerator {
+
+    /**
+     * Tenant list entry that selects every tenant with usage in the month.
+     */
+    public static final String ALL_TENANTS = "all";
+
+    private static final Log log = LogFactory.getLog(BatchReportGenerator.class);
+
+    private final int parallelism;
+    private final int queueCapacity;
+    private final long tenantTimeoutSeconds;
+    private final boolean virtualThreads;
+    private final boolean singleQuery;
+
+    /**
+     * Creates a batch generator configured from the custompdf.batch.* system properties.
+     */
+    public BatchReportGenerator() {
+
+        this(ReportConfig.getBatchParallelism(), ReportConfig.getBatchQueueCapacity(),
+                ReportConfig.getBatchTenantTimeoutSeconds(), ReportConfig.isBatchVirtualThreadsEnabled(),
+                ReportConfig.isBatchSingleQueryEnabled());
+    }
+
+    /**
+     * @param parallelism          maximum number of reports generated at once.
+     * @param queueCapacity        maximum number of reports waiting for a free worker.
+     * @param tenantTimeoutSeconds maximum time a single report may run.
+     * @param virtualThreads       whether to run reports on virtual threads when the JVM supports them.
+     * @param singleQuery          whether to aggregate all tenants with one query instead of one query per tenant.
+     */
+    public BatchReportGenerator(int parallelism, int queueCapacity, long tenantTimeoutSeconds,
+            boolean virtualThreads, boolean singleQuery) {
+
+        this.parallelism = Math.max(1, parallelism);
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.tenantTimeoutSeconds = Math.max(1, tenantTimeoutSeconds);
+        this.virtualThreads = virtualThreads;
+        this.singleQuery = singleQuery;
+    }
+
+    /**
+     * Generates the monthly report of each tenant.
+     *
+     * @param tenantDomains   tenant domains, or a single {@link #ALL_TENANTS} entry.
+     * @param year            year of the reports.
+     * @param month           month of the reports.
+     * @param outputDirectory directory to write the PDFs to.
+     * @return summary of the run.
+     * @throws IOException if the output directory or the tenant list cannot be obtained.
+     */
+    public BatchReportSummary generate(List<String> tenantDomains, String year, String month, Path outputDirectory)
+            throws IOException {
+
+        Files.createDirectories(outputDirectory);
+        long start = System.nanoTime();
+        boolean allTenants = tenantDomains.size() == 1 && ALL_TENANTS.equalsIgnoreCase(tenantDomains.get(0));
+        Map<String, UsageRows> rowsByTenant = null;
+        List<String> tenants;
+        if (singleQuery) {
+            rowsByTenant = getAllTenantRows(year, month);
+            tenants = allTenants ? new ArrayList<>(rowsByTenant.keySet()) : tenantDomains;
+        } else {
+            tenants = allTenants ? getTenantDomains(year, month) : tenantDomains;
+        }
+
+        BatchReportSummary summary = new BatchReportSummary();
+        ExecutorService executor = createExecutor();
+        Semaphore slots = new Semaphore(parallelism + queueCapacity);
+        // a virtual thread starts for every submitted report, so there the reports beyond the parallelism wait for
+        // a worker permit instead of in the queue of a pool.
+        Semaphore workers = executor instanceof ThreadPoolExecutor ? null : new Semaphore(parallelism);
+        ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1,
+                namedThreadFactory("custompdf-batch-watchdog"));
+        watchdog.setRemoveOnCancelPolicy(true);
+        List<TenantTask> tasks = new ArrayList<>();
+        try {
+            for (final String tenant : tenants) {
+                try {
+                    slots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while submitting batch reports.", e);
+                }
+                UsageRows tenantRows = null;
+                if (rowsByTenant != null) {
+                    // a tenant missing from the all-tenants result has no usage in the month.
+                    tenantRows = rowsByTenant.containsKey(tenant) ? rowsByTenant.get(tenant)
+                            : new UsageRows();
+                }
+                final TenantTask task = new TenantTask(tenant, year, month, tenantRows, outputDirectory, summary,
+                        slots, workers, watchdog);
+                try {
+                    task.setFuture(executor.submit(task));
+                    tasks.add(task);
+                } catch (RuntimeException e) {
+                    slots.release();
+                    summary.addFailed(tenant, e);
+                }
+            }
+            for (TenantTask task : tasks) {
+                task.await();
+            }
+        } finally {
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+        }
+        summary.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("Batch monthly reports for " + year + "-" + month + " completed: " + summary);
+        return summary;
+    }
+
+    private static Map<String, UsageRows> getAllTenantRows(String year, String month) throws IOException {
+
+        SnapshotStore snapshots = SnapshotStore.getInstance();
+        Map<String, UsageRows> rowsByTenant = snapshots.getAllTenantRows(Integer.parseInt(year),
+                Integer.parseInt(month));
+        if (rowsByTenant != null) {
+            return rowsByTenant;
+        }
+        rowsByTenant = AllTenantsAggregation.query(year, month);
+        try {
+            snapshots.save(Integer.parseInt(year), Integer.parseInt(month), rowsByTenant);
+        } catch (IOException e) {
+            log.warn("Could not write report snapshot of " + year + "-" + month, e);
+        }
+        return rowsByTenant;
+    }
+
+    /**
+     * Returns the tenants that have usage in the given month.
+     *
+     * @param year  year of the reports.
+     * @param month month of the reports.
+     * @return tenant domains.
+     * @throws IOException if the aggregation cannot be queried.
+     */
+    public static List<String> getTenantDomains(String year, String month) throws IOException {
+
+        Event[] events = SiddhiRuntimePool.getQueryExecutor().query(ReportQueries.tenants(year, month));
+        List<String> tenants = new ArrayList<>();
+        if (events != null) {
+            for (Event event : events) {
+                tenants.add(event.getData(0).toString());
+            }
+        }
+        return tenants;
+    }
+
+    private ExecutorService createExecutor() {
+
+        if (virtualThreads) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.debug("Virtual threads are not available, using a platform thread pool.");
+            }
+        }
+        // a finished report frees its slot before its worker polls the queue again, so the queue needs room for a
+        // full set of slots to never reject a submission.
+        return new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(parallelism + queueCapacity),
+                namedThreadFactory("custompdf-batch-worker"));
+    }
+
+    static ThreadFactory namedThreadFactory(final String prefix) {
+
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static String fileName(String tenantDomain, String year, String month) {
+
+        try {
+            return URLEncoder.encode(tenantDomain, "UTF-8") + "-" + year + "-" + month + ".pdf";
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Report of one tenant. The task and the watchdog race to settle its outcome: whichever of them moves the state
+     * away from {@link #RUNNING} first records the outcome in the summary, so every tenant is counted exactly once
+     * and a timed out report is never published.
+     */
+    private final class TenantTask implements Callable<Void> {
+
+        private static final int RUNNING = 0;
+        private static final int PUBLISHED = 1;
+        private static final int TIMED_OUT = 2;
+
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private final String tenant;
+        private final String year;
+        private final String month;
+        private final UsageRows tenantRows;
+        private final Path outputDirectory;
+        private final BatchReportSummary summary;
+        private final Semaphore slots;
+        // null when the executor itself bounds the running reports.
+        private final Semaphore workers;
+        private final ScheduledThreadPoolExecutor watchdog;
+        private volatile Future<?> future;
+        // temporary file of the report, guarded by this task.
+        private Path temp;
+
+        private TenantTask(String tenant, String year, String month, UsageRows tenantRows,
+                Path outputDirectory, BatchReportSummary summary, Semaphore slots, Semaphore workers,
+                ScheduledThreadPoolExecutor watchdog) {
+
+            this.tenant = tenant;
+            this.year = year;
+            this.month = month;
+            this.tenantRows = tenantRows;
+            this.outputDirectory = outputDirectory;
+            this.summary = summary;
+            this.slots = slots;
+            this.workers = workers;
+            this.watchdog = watchdog;
+        }
+
+        private void setFuture(Future<?> future) {
+
+            this.future = future;
+        }
+
+        @Override
+        public Void call() throws IOException, PDFReportException {
+
+            try {
+                if (workers == null) {
+                    generateWithTimeout();
+                    return null;
+                }
+                try {
+                    workers.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a batch worker.", e);
+                }
+                try {
+                    generateWithTimeout();
+                    return null;
+                } finally {
+                    workers.release();
+                }
+            } finally {
+                slots.release();
+            }
+        }
+
+        /**
+         * Generates the report, timing it from the moment it runs rather than from its submission.
+         */
+        private void generateWithTimeout() throws IOException, PDFReportException {
+
+            Future<?> timeout = watchdog.schedule(this::timeOut, tenantTimeoutSeconds, TimeUnit.SECONDS);
+            try {
+                generate();
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        private void timeOut() {
+
+            if (!state.compareAndSet(RUNNING, TIMED_OUT)) {
+                return;
+            }
+            summary.addTimedOut(tenant);
+            log.warn("Monthly report of tenant " + tenant + " timed out after " + tenantTimeoutSeconds + "s.");
+            Future<?> self = future;
+            if (self != null) {
+                self.cancel(true);
+            }
+        }
+
+        /**
+         * Settles the outcome in favour of the task unless the watchdog timed it out first.
+         *
+         * @return true if the task records its own outcome.
+         */
+        private boolean settle() {
+
+            state.compareAndSet(RUNNING, PUBLISHED);
+            return state.get() == PUBLISHED;
+        }
+
+        /**
+         * Waits for the task and records its failure. Other outcomes are recorded by the task or the watchdog.
+         */
+        private void await() throws IOException {
+
+            try {
+                future.get();
+            } catch (CancellationException e) {
+                // only the watchdog cancels a task, once it has recorded the timeout.
+            } catch (ExecutionException e) {
+                if (settle()) {
+                    summary.addFailed(tenant, e.getCause());
+                    log.error("Error while generating monthly report of tenant " + tenant, e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for batch reports.", e);
+            } finally {
+                if (state.get() == TIMED_OUT) {
+                    discardTempFile();
+                }
+            }
+        }
+
+        /**
+         * Creates the temporary file of the report unless the report timed out.
+         *
+         * @return the file, or null if the report timed out.
+         */
+        private synchronized Path createTempFile() throws IOException {
+
+            if (state.get() == TIMED_OUT) {
+                return null;
+            }
+            temp = Files.createTempFile(outputDirectory, "batch", ".tmp");
+            return temp;
+        }
+
+        /**
+         * Deletes the temporary file of a timed out report, which may still be running. As the state is final, no
+         * new file is created afterwards.
+         */
+        private synchronized void discardTempFile() {
+
+            if (temp == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                // e.g. still open on Windows, the task deletes it once it finishes.
+                log.warn("Could not delete temporary report file " + temp, e);
+            }
+        }
+
+        private void generate() throws IOException, PDFReportException {
+
+            CustomPDFGenerator generator = new CustomPDFGenerator(year, month, tenant, tenantRows);
+            if (state.get() == TIMED_OUT) {
+                return; // timed out while querying, do not render.
+            }
+            InputStream in = generator.generateMonthlyRequestSummaryPDF();
+            if (in == null) {
+                if (settle()) {
+                    summary.addEmpty(tenant);
+                }
+                return;
+            }
+            try {
+                Path temp = createTempFile();
+                if (temp == null) {
+                    return; // timed out while rendering, do not write the file.
+                }
+                try {
+                    long bytes;
+                    // opened without CREATE, so a file already discarded on timeout is not created again.
+                    try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                        bytes = IOUtils.copyLarge(in, out);
+                    }
+                    if (!settle()) {
+                        return; // timed out, do not publish the file.
+                    }
+                    Files.move(temp, outputDirectory.resolve(fileName(tenant, year, month)),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    summary.addGenerated(tenant, bytes);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
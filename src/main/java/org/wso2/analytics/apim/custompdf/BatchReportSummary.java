@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Outcome of a batch run of monthly reports.
+ */
+public class BatchReportSummary {
+
+    private final List<String> generated = new ArrayList<>();
+    private final List<String> empty = new ArrayList<>();
+    private final List<String> timedOut = new ArrayList<>();
+    private final Map<String, String> failed = new LinkedHashMap<>();
+    private long bytesWritten;
+    private long elapsedMillis;
+
+    synchronized void addGenerated(String tenantDomain, long bytes) {
+
+        generated.add(tenantDomain);
+        bytesWritten += bytes;
+    }
+
+    synchronized void addEmpty(String tenantDomain) {
+
+        empty.add(tenantDomain);
+    }
+
+    synchronized void addTimedOut(String tenantDomain) {
+
+        timedOut.add(tenantDomain);
+    }
+
+    synchronized void addFailed(String tenantDomain, Throwable cause) {
+
+        failed.put(tenantDomain, String.valueOf(cause));
+    }
+
+    void setElapsedMillis(long elapsedMillis) {
+
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return tenants whose report was written.
+     */
+    public synchronized List<String> getGenerated() {
+
+        return Collections.unmodifiableList(new ArrayList<>(generated));
+    }
+
+    /**
+     * @return tenants without usage in the month, for which no report was written.
+     */
+    public synchronized List<String> getEmpty() {
+
+        return Collections.unmodifiableList(new ArrayList<>(empty));
+    }
+
+    /**
+     * @return tenants whose report did not finish within the per-tenant timeout.
+     */
+    public synchronized List<String> getTimedOut() {
+
+        return Collections.unmodifiableList(new ArrayList<>(timedOut));
+    }
+
+    /**
+     * @return failure reasons keyed by tenant domain.
+     */
+    public synchronized Map<String, String> getFailed() {
+
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failed));
+    }
+
+    public synchronized long getBytesWritten() {
+
+        return bytesWritten;
+    }
+
+    public long getElapsedMillis() {
+
+        return elapsedMillis;
+    }
+
+    /**
+     * @return reports completed (written or empty) per second.
+     */
+    public synchronized double getReportsPerSecond() {
+
+        return elapsedMillis == 0 ? 0 : (generated.size() + empty.size()) * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+
+        return "generated=" + generated.size() + ", empty=" + empty.size() + ", timedOut=" + timedOut.size()
+                + ", failed=" + failed.size() + ", bytes=" + bytesWritten + ", elapsed=" + elapsedMillis + "ms"
+                + String.format(Locale.ROOT, ", throughput=%.2f reports/s", getReportsPerSecond());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.CELL_PADDING;
+
+/**
+ * Fits the column widths of the report table to its content.
+ *
+ * Every column first gets the width of its header, so headers are never cut. The rest of the table width goes to
+ * the columns that need more for their widest cell: if there is enough for all of them, each gets what it needs
+ * and the remainder is spread in proportion; otherwise the width is shared out evenly, narrow columns taking only
+ * what they need, and the text of the widest columns is truncated by the renderer.
+ */
+final class ColumnFitter {
+
+    private ColumnFitter() {
+
+    }
+
+    /**
+     * Computes column widths adding up to the table width.
+     *
+     * @param columnHeaders the table column headers.
+     * @param headerFont    font of the headers.
+     * @param rows          rows of the report.
+     * @param rowFont       font of the rows.
+     * @param fontSize      font size of headers and rows.
+     * @param tableWidth    width of the table.
+     * @return widths of each column.
+     * @throws IOException if the font widths cannot be read.
+     */
+    static float[] fit(String[] columnHeaders, PDFont headerFont, ReportRowSource rows, PDFont rowFont,
+            float fontSize, float tableWidth) throws IOException {
+
+        int columns = columnHeaders.length;
+        FontMetrics headerMetrics = FontMetrics.of(headerFont);
+        FontMetrics rowMetrics = FontMetrics.of(rowFont);
+        float[] minimum = new float[columns];
+        float[] natural = new float[columns];
+        for (int i = 0; i < columns; i++) {
+            minimum[i] = headerMetrics.getStringWidth(columnHeaders[i], fontSize) + 2 * CELL_PADDING;
+            natural[i] = minimum[i];
+        }
+        String[] cells = new String[ReportRowSource.COLUMN_COUNT];
+        for (int row = 0; row < rows.size(); row++) {
+            rows.getRow(row, cells);
+            for (int i = 0; i < columns; i++) {
+                float width = rowMetrics.getStringWidth(cells[i], fontSize) + 2 * CELL_PADDING;
+                if (width > natural[i]) {
+                    natural[i] = width;
+                }
+            }
+        }
+
+        float[] widths = minimum.clone();
+        float budget = tableWidth;
+        float demand = 0;
+        for (int i = 0; i < columns; i++) {
+            budget -= minimum[i];
+            demand += natural[i] - minimum[i];
+        }
+        if (budget <= 0) {
+            // even the headers do not fit, so the columns are scaled down together.
+            for (int i = 0; i < columns; i++) {
+                widths[i] = minimum[i] * tableWidth / (tableWidth - budget);
+            }
+        } else if (demand <= budget) {
+            float total = 0;
+            for (int i = 0; i < columns; i++) {
+                total += natural[i];
+            }
+            for (int i = 0; i < columns; i++) {
+                widths[i] = natural[i] * tableWidth / total;
+            }
+        } else {
+            shareOut(widths, natural, budget);
+        }
+        // the last column absorbs rounding, so that the grid closes exactly at the table edge.
+        float sum = 0;
+        for (int i = 0; i < columns - 1; i++) {
+            sum += widths[i];
+        }
+        widths[columns - 1] = tableWidth - sum;
+        return widths;
+    }
+
+    /**
+     * Shares a budget out evenly among the columns still wanting more, giving columns that need less than an even
+     * share just what they need and passing the rest on to the others.
+     */
+    private static void shareOut(float[] widths, float[] natural, float budget) {
+
+        boolean[] settled = new boolean[widths.length];
+        int open = widths.length;
+        boolean changed = true;
+        while (changed && open > 0) {
+            changed = false;
+            float share = budget / open;
+            for (int i = 0; i < widths.length; i++) {
+                if (!settled[i] && natural[i] - widths[i] <= share) {
+                    budget -= natural[i] - widths[i];
+                    widths[i] = natural[i];
+                    settled[i] = true;
+                    open--;
+                    changed = true;
+                }
+            }
+        }
+        if (open > 0) {
+            float share = budget / open;
+            for (int i = 0; i < widths.length; i++) {
+                if (!settled[i]) {
+                    widths[i] += share;
+                }
+            }
+        }
+    }
+}
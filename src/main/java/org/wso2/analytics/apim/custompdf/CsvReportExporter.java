@@ -0,0 +1,112 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes report rows as RFC 4180 CSV in UTF-8. A byte order mark is written first so that spreadsheet applications
+ * detect the encoding of the Spanish headers.
+ *
+ * API, application and user names are chosen by tenants, so a cell that a spreadsheet would evaluate as a formula is
+ * prefixed with a single quote, which makes it plain text.
+ */
+final class CsvReportExporter implements ReportExporter {
+
+    @Override
+    public void export(ReportRowSource rows, String[] columnHeaders, OutputStream out) throws IOException {
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write('\uFEFF');
+        writeRecord(writer, columnHeaders);
+        String[] cells = new String[ReportRowSource.COLUMN_COUNT];
+        for (int i = 0; i < rows.size(); i++) {
+            rows.getRow(i, cells);
+            cells[0] = rowNumber(cells[0], i);
+            writeRecord(writer, cells);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Returns the plain number of a row instead of the "n)" label printed on the PDF. The label is empty for the row
+     * summing up a top-N report, which stays empty.
+     */
+    static String rowNumber(String label, int index) {
+
+        return label == null || label.isEmpty() ? "" : Integer.toString(index + 1);
+    }
+
+    private static void writeRecord(Writer writer, String[] cells) throws IOException {
+
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeField(writer, cells[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Returns the value with a leading single quote if it starts with a character that makes spreadsheet
+     * applications read the cell as a formula.
+     */
+    static String neutralizeFormula(String value) {
+
+        if (value.isEmpty()) {
+            return value;
+        }
+        char first = value.charAt(0);
+        if (first == '=' || first == '+' || first == '-' || first == '@' || first == '\t' || first == '\r') {
+            return "'" + value;
+        }
+        return value;
+    }
+
+    private static void writeField(Writer writer, String cell) throws IOException {
+
+        if (cell == null) {
+            return;
+        }
+        String value = neutralizeFormula(cell);
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
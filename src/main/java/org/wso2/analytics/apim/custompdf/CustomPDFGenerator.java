@@ -17,8 +17,6 @@
  */
 package org.wso2.analytics.apim.custompdf;
 
-import io.siddhi.core.SiddhiAppRuntime;
-import io.siddhi.core.SiddhiManager;
 import io.siddhi.core.event.Event;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -38,15 +36,18 @@ import org.wso2.analytics.apim.rest.api.report.reportgen.model.RowEntry;
 import org.wso2.analytics.apim.rest.api.report.reportgen.model.TableData;
 // import org.wso2.analytics.apim.rest.api.report.reportgen.util.ReportGeneratorUtil;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -56,142 +57,470 @@ import java.util.Map;
  */
 public class CustomPDFGenerator implements ReportGenerator {
 
-    private static final float ROW_HEIGHT = 25;
-    private static final float CELL_PADDING = 5;
-    private static final float CELL_MARGIN = 40; // margin on left side;
-    private static final float TABLE_WIDTH = 750;
-    private static final float TABLE_TOP_Y = 480;
+    static final float ROW_HEIGHT = 25;
+    static final float CELL_PADDING = 5;
+    static final float CELL_MARGIN = 40; // margin on left side;
+    static final float TABLE_WIDTH = 750;
+    static final float TABLE_TOP_Y = 480;
 
     // Font configuration
-    private static final PDFont TEXT_FONT = PDType1Font.HELVETICA;
-    private static final float FONT_SIZE = 9;
-    private static final float RECORD_COUNT_PER_PAGE = 15;
+    static final PDFont TEXT_FONT = PDType1Font.HELVETICA;
+    static final float FONT_SIZE = 9;
+    static final float RECORD_COUNT_PER_PAGE = 15;
+    // distance from the top of a row to the baseline of its text, the same for every row and page.
+    static final float ROW_TEXT_OFFSET = (ROW_HEIGHT / 2)
+            + ((TEXT_FONT.getFontDescriptor().getFontBoundingBox().getHeight() / 1000 * FONT_SIZE) / 4);
+
+    // Bump whenever the rendered layout changes so that cached reports are not served with the old layout.
+    private static final String TEMPLATE_VERSION = "2";
+    // version of the row cache keys, which hold the full rows of a month whatever the layout or top-N setting.
+    private static final String ROWS_VERSION = "rows";
+    static final String[] COLUMN_HEADERS = { "#", "Nombre de la API", "Versión", "Nombre de la Aplicación",
+            "Usuario", "Cantidad de peticiones" };
+    static final float[] COLUMN_WIDTHS = { 40, 160, 70, 160, 160, 160 };
+    static final String MONTHLY_TITLE = "Resumen de uso mensual";
+    static final String QUARTERLY_TITLE = "Resumen de uso trimestral";
+    static final String YEAR_TO_DATE_TITLE = "Resumen de uso anual";
+    static final String RANGE_TITLE = "Resumen de uso del período";
 
     private static final Log log = LogFactory.getLog(DefaultReportGeneratorImpl.class);
-    private static final String REQUEST_SUMMARY_MONTHLY_APP_NAME = "/APIMTopAppUsersReport.siddhi";
-    private List<Integer> recordsPerPageList;
-    private TableData table;
-    private PDDocument document;
-    private Map<Integer, PDPage> pageMap = new HashMap<>();
+    private ReportRowSource rows;
+    private final String title;
     private String period;
-    private int numOfPages;
     private final String[] months = { "Enero", "Febrero", "Marzo", "Abril", "Mayo", "Junio", "Julio", "Agosto",
             "Septiembre", "Octubre", "Noviembre", "Diciembre" };
-    private SiddhiAppRuntime siddhiAppRuntime = null;
     private long totalRequestCount;
+    private final ReportCacheKey cacheKey;
+    private byte[] cachedPdf;
+    private final ReportTrace trace;
+    private final String year;
+    private final String month;
+    private final String tenantDomain;
+    private final int topN;
+    // first month of a range report, null for a monthly report.
+    private final YearMonth firstMonth;
+    // whether the PDF is generated through the ReportCoalescer, in which case nothing is loaded up front.
+    private final boolean coalesced;
 
     /**
      * The default implementation of Monthly request report.
-     * 
+     *
+     * When {@link ReportConfig#isCoalescingEnabled()} the report is only generated when requested, and concurrent
+     * requests for the same report share one generation through the {@link ReportCoalescer}.
+     *
      * @param year         year of the report.
      * @param month        month of the report.
      * @param tenantDomain
      */
     public CustomPDFGenerator(String year, String month, String tenantDomain) throws IOException {
 
-        this.table = getRecordsFromAggregations(year, month, tenantDomain);
-        if (table.getRows().size() > 0) {
-            String[] columnHeaders = { "#", "Nombre de la API", "Versión", "Nombre de la Aplicación", "Usuario",
-                    "Cantidad de peticiones" };
-            table.setColumnHeaders(columnHeaders);
-            String monthName = months[Integer.parseInt(month) - 1];
-            this.period = monthName + " " + year;
-            this.numOfPages = getNumberOfPages(table.getRows().size());
-            this.document = initializePages();
-            this.recordsPerPageList = getRecordsPerPage(table.getRows().size());
+        this(year, month, tenantDomain, null, ReportConfig.isCoalescingEnabled());
+    }
+
+    /**
+     * Monthly request report of a tenant whose rows may already have been aggregated, e.g. by
+     * {@link AllTenantsAggregation} for a batch run.
+     *
+     * @param year         year of the report.
+     * @param month        month of the report.
+     * @param tenantDomain API creator tenant domain.
+     * @param tenantRows   aggregated rows of the tenant, or null to query them.
+     */
+    public CustomPDFGenerator(String year, String month, String tenantDomain, UsageRows tenantRows)
+            throws IOException {
+
+        this(year, month, tenantDomain, tenantRows, false);
+    }
+
+    private CustomPDFGenerator(String year, String month, String tenantDomain, UsageRows tenantRows,
+            boolean coalesced) throws IOException {
+
+        this.year = year;
+        this.month = month;
+        this.tenantDomain = tenantDomain;
+        this.topN = ReportConfig.getReportTopN();
+        this.firstMonth = null;
+        this.title = MONTHLY_TITLE;
+        this.coalesced = coalesced;
+        this.cacheKey = new ReportCacheKey(tenantDomain, Integer.parseInt(year), Integer.parseInt(month),
+                templateVersion(topN));
+        if (coalesced) {
+            this.trace = null;
+            return;
         }
+        this.trace = ReportInstrumentation.start(tenantDomain, cacheKey.getYear(), cacheKey.getMonth());
+        this.cachedPdf = ReportCache.getInstance().getPdf(cacheKey);
+        if (cachedPdf != null) {
+            if (trace != null) {
+                trace.setPdfCacheHit(true);
+            }
+            return;
+        }
+        loadRows(tenantRows);
     }
 
-    private void initializeSiddhiAPPRuntime() throws IOException {
-        InputStream inputStream = DefaultReportGeneratorImpl.class
-                .getResourceAsStream(REQUEST_SUMMARY_MONTHLY_APP_NAME);
-        String siddhiApp = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
-        SiddhiManager siddhiManager = new SiddhiManager();
-        siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(siddhiApp);
-        siddhiAppRuntime.start();
+    /**
+     * Request report of a tenant over consecutive months, e.g. a quarter or the year to date.
+     *
+     * The rows are merged from the aggregates of the single months, so months held by the report cache or by a
+     * usage snapshot are not queried again and usually only the current month is aggregated live. Range reports
+     * themselves are not cached, as merging the months is cheap compared to querying them.
+     *
+     * @param tenantDomain API creator tenant domain.
+     * @param firstMonth   first month of the report, not after the current month.
+     * @param lastMonth    last month of the report, not before the first one. Months after the current month are
+     *                     left out.
+     * @throws IOException if the usage of a month cannot be queried.
+     */
+    public CustomPDFGenerator(String tenantDomain, YearMonth firstMonth, YearMonth lastMonth) throws IOException {
+
+        this(tenantDomain, firstMonth, lastMonth, firstMonth.equals(lastMonth) ? MONTHLY_TITLE : RANGE_TITLE);
     }
 
-    private PDDocument initializePages() {
+    private CustomPDFGenerator(String tenantDomain, YearMonth firstMonth, YearMonth lastMonth, String title)
+            throws IOException {
+
+        YearMonth currentMonth = YearMonth.now();
+        if (lastMonth.isBefore(firstMonth)) {
+            throw new IllegalArgumentException("Last month " + lastMonth + " is before first month " + firstMonth
+                    + ".");
+        }
+        if (firstMonth.isAfter(currentMonth)) {
+            throw new IllegalArgumentException("First month " + firstMonth + " is in the future.");
+        }
+        YearMonth endMonth = lastMonth.isAfter(currentMonth) ? currentMonth : lastMonth;
+        this.year = Integer.toString(endMonth.getYear());
+        this.month = Integer.toString(endMonth.getMonthValue());
+        this.tenantDomain = tenantDomain;
+        this.topN = ReportConfig.getReportTopN();
+        this.firstMonth = firstMonth;
+        this.title = title;
+        this.coalesced = false;
+        this.cacheKey = null;
+        this.trace = ReportInstrumentation.start(tenantDomain, endMonth.getYear(), endMonth.getMonthValue());
+        List<UsageRows> partials = new ArrayList<>();
+        for (YearMonth yearMonth = firstMonth; !yearMonth.isAfter(endMonth); yearMonth = yearMonth.plusMonths(1)) {
+            partials.add(loadMonth(tenantDomain, yearMonth, trace));
+        }
+        long mergeStart = trace != null ? System.nanoTime() : 0;
+        UsageRows usageRows = UsageRows.merge(partials, topN);
+        if (trace != null) {
+            trace.addPhaseNanos(ReportPhase.CONVERSION, System.nanoTime() - mergeStart);
+        }
+        setRows(usageRows);
+    }
+
+    /**
+     * Request report of a tenant from January of the given year to its last month, or to the current month for the
+     * current year.
+     *
+     * @param tenantDomain API creator tenant domain.
+     * @param year         year of the report.
+     * @return the report.
+     * @throws IOException if the usage of a month cannot be queried.
+     */
+    public static CustomPDFGenerator yearToDate(String tenantDomain, int year) throws IOException {
+
+        return new CustomPDFGenerator(tenantDomain, YearMonth.of(year, 1), YearMonth.of(year, 12),
+                YEAR_TO_DATE_TITLE);
+    }
 
-        PDDocument document = new PDDocument();
-        for (int i = 1; i <= numOfPages; i++) {
-            PDPage nextPage = new PDPage(PDPage.PAGE_SIZE_A4);
-            nextPage.setRotation(90);
-            document.addPage(nextPage);
-            pageMap.put(i, nextPage);
+    /**
+     * Request report of a tenant over a quarter of a year, up to the current month for the current quarter.
+     *
+     * @param tenantDomain API creator tenant domain.
+     * @param year         year of the report.
+     * @param quarter      quarter of the year, 1 to 4.
+     * @return the report.
+     * @throws IOException if the usage of a month cannot be queried.
+     */
+    public static CustomPDFGenerator quarter(String tenantDomain, int year, int quarter) throws IOException {
+
+        if (quarter < 1 || quarter > 4) {
+            throw new IllegalArgumentException("Quarter must be 1 to 4 but was " + quarter + ".");
+        }
+        YearMonth firstMonth = YearMonth.of(year, 3 * quarter - 2);
+        return new CustomPDFGenerator(tenantDomain, firstMonth, firstMonth.plusMonths(2), QUARTERLY_TITLE);
+    }
+
+    /**
+     * Returns the template version of the cache key of a report, which tells apart every setting that changes the
+     * rendered document: top-N reports differ from full ones and fixed column widths differ from fitted ones.
+     */
+    private static String templateVersion(int topN) {
+
+        String version = ReportConfig.isAutoFitEnabled() ? TEMPLATE_VERSION : TEMPLATE_VERSION + "-fixed";
+        return topN > 0 ? version + "-top" + topN : version;
+    }
+
+    /**
+     * Returns the key under which the full aggregated rows of a tenant in one month are cached. It does not depend on
+     * the layout or the top-N setting, so monthly, batch and range reports all share the rows of a month.
+     */
+    private static ReportCacheKey rowsKey(String tenantDomain, int year, int month) {
+
+        return new ReportCacheKey(tenantDomain, year, month, ROWS_VERSION);
+    }
+
+    /**
+     * Returns the full aggregated rows of a tenant in one month, from the report cache if possible.
+     */
+    private static UsageRows loadMonth(String tenantDomain, YearMonth yearMonth, ReportTrace trace)
+            throws IOException {
+
+        ReportCacheKey key = rowsKey(tenantDomain, yearMonth.getYear(), yearMonth.getMonthValue());
+        ReportCache reportCache = ReportCache.getInstance();
+        UsageRows usageRows = reportCache.getTable(key);
+        if (usageRows == null) {
+            int monthValue = yearMonth.getMonthValue();
+            usageRows = getRecordsFromAggregations(Integer.toString(yearMonth.getYear()),
+                    (monthValue < 10 ? "0" : "") + monthValue, tenantDomain, trace);
+            reportCache.putTable(key, usageRows);
+        }
+        return usageRows;
+    }
+
+    private void loadRows(UsageRows tenantRows) throws IOException {
+
+        // the full rows are cached and only cut down to the top N here, so that range reports can reuse them.
+        ReportCacheKey key = rowsKey(tenantDomain, cacheKey.getYear(), cacheKey.getMonth());
+        ReportCache reportCache = ReportCache.getInstance();
+        UsageRows usageRows = tenantRows;
+        if (usageRows == null) {
+            usageRows = reportCache.getTable(key);
+            if (usageRows != null && trace != null) {
+                trace.setRowCacheHit(true);
+            }
+        }
+        if (usageRows == null) {
+            usageRows = getRecordsFromAggregations(year, month, tenantDomain, trace);
+            reportCache.putTable(key, usageRows);
+        } else if (tenantRows != null) {
+            reportCache.putTable(key, usageRows);
+        }
+        setRows(usageRows.top(topN));
+    }
+
+    private void setRows(UsageRows usageRows) {
+
+        if (trace != null) {
+            trace.setRows(usageRows.size());
+        }
+        this.rows = usageRows;
+        this.totalRequestCount = usageRows.getTotalRequestCount();
+        String lastMonthName = months[Integer.parseInt(month) - 1];
+        if (firstMonth == null || firstMonth.equals(YearMonth.of(Integer.parseInt(year), Integer.parseInt(month)))) {
+            this.period = lastMonthName + " " + year;
+        } else if (firstMonth.getYear() == Integer.parseInt(year)) {
+            this.period = months[firstMonth.getMonthValue() - 1] + " - " + lastMonthName + " " + year;
+        } else {
+            this.period = months[firstMonth.getMonthValue() - 1] + " " + firstMonth.getYear() + " - "
+                    + lastMonthName + " " + year;
+        }
+    }
+
+    /**
+     * Writes the report in the given format. CSV and XLSX contain the rows with the same column headers as the PDF
+     * and are streamed to the output as they are produced.
+     *
+     * @param format the output format.
+     * @param out    stream to write to, which is flushed but not closed.
+     * @return number of rows written, -1 for a PDF served from the cache or generated for a concurrent request, or
+     *         0 if there was no data in which case nothing is written for a PDF.
+     * @throws IOException        if the data cannot be queried or written.
+     * @throws PDFReportException if the PDF cannot be generated.
+     */
+    public int export(ReportFormat format, OutputStream out) throws IOException, PDFReportException {
+
+        if (format == ReportFormat.PDF) {
+            try (InputStream pdf = generateMonthlyRequestSummaryPDF()) {
+                if (pdf == null) {
+                    return 0;
+                }
+                IOUtils.copy(pdf, out);
+                out.flush();
+                return rows != null ? rows.size() : -1;
+            }
+        }
+        if (coalesced) {
+            return new CustomPDFGenerator(year, month, tenantDomain, null).export(format, out);
+        }
+        try {
+            if (rows == null) {
+                // a cached PDF does not help other formats.
+                loadRows(null);
+            }
+            long start = trace != null ? System.nanoTime() : 0;
+            format.getExporter().export(rows, COLUMN_HEADERS, out);
+            if (trace != null) {
+                trace.addPhaseNanos(ReportPhase.SAVE, System.nanoTime() - start);
+            }
+            return rows.size();
+        } finally {
+            ReportInstrumentation.complete(trace);
         }
-        return document;
     }
 
     @Override
     public InputStream generateMonthlyRequestSummaryPDF() throws PDFReportException {
 
-        if (table.getRows().size() == 0) {
+        if (coalesced) {
+            return ReportCoalescer.getInstance().generate(cacheKey,
+                    () -> new CustomPDFGenerator(year, month, tenantDomain, null).generateMonthlyRequestSummaryPDF());
+        }
+        try {
+            return generate();
+        } finally {
+            ReportInstrumentation.complete(trace);
+        }
+    }
+
+    private InputStream generate() throws PDFReportException {
+
+        if (cachedPdf != null) {
+            log.debug("Serving monthly request summary PDF from cache.");
+            if (trace != null) {
+                trace.setBytes(cachedPdf.length);
+            }
+            return new ReportBytesInputStream(cachedPdf);
+        }
+        if (rows.size() == 0) {
             return null;
         }
         log.debug("Starting to generate PDF.");
-        PDPageContentStream contentStream = null;
+        PDDocument document = null;
         try {
-            contentStream = new PDPageContentStream(document, pageMap.get(1), true, false);
-            contentStream.concatenate2CTM(0, 1, -1, 0, pageMap.get(1).getMediaBox().getWidth(), 0);
+            document = ReportPageRenderer.createDocument();
             // ReportGeneratorUtil.insertLogo(document, contentStream);
-            insertPageNumber(contentStream, pageMap.get(1), 1);
-            insertReportTitleToHeader(contentStream, "Resumen de uso mensual");
-            insertReportTimePeriodToHeader(contentStream, period);
-            insertReportGeneratedTimeToHeader(contentStream);
-            contentStream.close();
-
-            float[] columnWidths = { 40, 160, 70, 160, 160, 160 };
-            drawTableGrid(document, pageMap, recordsPerPageList, columnWidths, table.getRows().size());
-            writeRowsContent(table.getColumnHeaders(), columnWidths, document, pageMap, table.getRows());
-
-            // write total request count to the header.
-            PDPageContentStream contentStreamForInitialPage = new PDPageContentStream(document, pageMap.get(1), true,
-                    false);
-            insertTotalRequestCountToHeader(contentStreamForInitialPage, totalRequestCount);
-            contentStreamForInitialPage.close();
-
+            new ReportPageRenderer(COLUMN_HEADERS, COLUMN_WIDTHS, title, period).render(document, rows,
+                    totalRequestCount, trace);
+
+            long saveStart = trace != null ? System.nanoTime() : 0;
+            if (ReportConfig.isFileOutputMode()) {
+                // cached PDFs live on the heap, so the file mode does not populate the PDF cache.
+                TempFileInputStream in = saveToTempFile(document);
+                if (trace != null) {
+                    trace.addPhaseNanos(ReportPhase.SAVE, System.nanoTime() - saveStart);
+                    trace.setBytes(in.getLength());
+                }
+                log.debug("PDF generation complete.");
+                return in;
+            }
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             document.save(out);
-            document.close();
             log.debug("PDF generation complete.");
-            return new ByteArrayInputStream(out.toByteArray());
+            byte[] pdf = out.toByteArray();
+            if (trace != null) {
+                trace.addPhaseNanos(ReportPhase.SAVE, System.nanoTime() - saveStart);
+                trace.setBytes(pdf.length);
+            }
+            if (cacheKey != null) {
+                ReportCache.getInstance().putPdf(cacheKey, pdf);
+            }
+            return new ReportBytesInputStream(pdf);
         } catch (IOException | COSVisitorException e) {
             throw new PDFReportException("Error during generating monthly request summary report.", e);
+        } finally {
+            closeQuietly(document);
         }
     }
 
-    private TableData getRecordsFromAggregations(String year, String month, String apiCreatorTenantDomain)
-            throws IOException {
+    private static void closeQuietly(PDDocument document) {
+
+        if (document != null) {
+            try {
+                document.close();
+            } catch (IOException e) {
+                log.warn("Error while closing PDF document.", e);
+            }
+        }
+    }
+
+    /**
+     * Saves the document to a temporary file.
+     *
+     * @param document the document to save.
+     * @return a stream over the file, which deletes the file when closed.
+     * @throws IOException
+     * @throws COSVisitorException
+     */
+    private static TempFileInputStream saveToTempFile(PDDocument document) throws IOException, COSVisitorException {
+
+        Path directory = Paths.get(ReportConfig.getOutputTempDirectory());
+        Files.createDirectories(directory);
+        Path file = Files.createTempFile(directory, "custompdf-", ".pdf");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                document.save(out);
+            }
+            return new TempFileInputStream(file);
+        } catch (IOException | COSVisitorException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private static UsageRows getRecordsFromAggregations(String year, String month, String apiCreatorTenantDomain,
+            ReportTrace trace) throws IOException {
+
+        // closed months with a snapshot do not need Siddhi at all.
+        UsageRows snapshotRows = SnapshotStore.getInstance().getTenantRows(apiCreatorTenantDomain,
+                Integer.parseInt(year), Integer.parseInt(month));
+        if (snapshotRows != null) {
+            return snapshotRows;
+        }
+        long planningStart = System.nanoTime();
+        // the full rows are cached for every report of the month, so Siddhi sorts them for full reports.
+        String requestCountQuery = ReportQueries.tenantUsage(year, month, apiCreatorTenantDomain, true);
+
+        if (trace == null) {
+            Event[] events = SiddhiRuntimePool.getQueryExecutor().query(requestCountQuery);
+            return UsageRows.fromEvents(events); // no rows if no data found
+        }
+        Event[] events;
+        long queryStart = System.nanoTime();
+        trace.addPhaseNanos(ReportPhase.PLANNING, queryStart - planningStart);
+        // a range report runs several queries on one trace, so only the startup and planning of this query are
+        // subtracted.
+        long runtimeStartup = trace.getPhaseNanos(ReportPhase.RUNTIME_STARTUP);
+        long planning = trace.getPhaseNanos(ReportPhase.PLANNING);
+        // the pool records the startup of a new runtime and the compilation of the query on the attached trace.
+        trace.attach();
+        try {
+            events = SiddhiRuntimePool.getQueryExecutor().query(requestCountQuery);
+        } finally {
+            trace.detach();
+        }
+        long conversionStart = System.nanoTime();
+        trace.addPhaseNanos(ReportPhase.QUERY, conversionStart - queryStart
+                - (trace.getPhaseNanos(ReportPhase.RUNTIME_STARTUP) - runtimeStartup)
+                - (trace.getPhaseNanos(ReportPhase.PLANNING) - planning));
+        UsageRows usageRows = UsageRows.fromEvents(events);
+        trace.addPhaseNanos(ReportPhase.CONVERSION, System.nanoTime() - conversionStart);
+        return usageRows;
+    }
+
+    /**
+     * Materializes report rows as table data.
+     *
+     * @param rows rows of the report.
+     * @return table data with the report column headers.
+     */
+    public static TableData toTableData(ReportRowSource rows) {
 
         TableData table = new TableData();
-        String date = year + "-" + month;
-        String requestCountQuery = "from ApiUserPerAppAgg on apiCreatorTenantDomain==" + "\'" + apiCreatorTenantDomain
-                + "\'" + " within '" + date + "-** **:**:**' per \"months\" select apiName, apiVersion, "
-                + "applicationName, applicationOwner, sum(totalRequestCount) as " + "RequestCount group by "
-                + "apiName, apiVersion, applicationName, applicationOwner order by RequestCount desc";
-
-        initializeSiddhiAPPRuntime();
-        Event[] events = siddhiAppRuntime.query(requestCountQuery);
-        siddhiAppRuntime.shutdown();
-        if (events == null) {
-            return table; // no data found
-        }
-        List<RowEntry> rowData = new ArrayList<>();
-        int recordNumber = 1;
-        for (Event event : events) {
+        List<RowEntry> rowData = new ArrayList<>(rows.size());
+        String[] cells = new String[ReportRowSource.COLUMN_COUNT];
+        for (int i = 0; i < rows.size(); i++) {
+            rows.getRow(i, cells);
             RowEntry entry = new RowEntry();
-            entry.setEntry(recordNumber + ")");
-            entry.setEntry(event.getData(0).toString());
-            entry.setEntry(event.getData(1).toString());
-            entry.setEntry(event.getData(2).toString());
-            entry.setEntry(event.getData(3).toString().split("@")[0]);
-            entry.setEntry(event.getData(4).toString());
-            totalRequestCount += (Long) event.getData(4);
+            for (String cell : cells) {
+                entry.setEntry(cell);
+            }
             rowData.add(entry);
-            table.setRows(rowData);
-            recordNumber += 1;
         }
+        table.setRows(rowData);
+        table.setColumnHeaders(COLUMN_HEADERS.clone());
         return table;
     }
 
@@ -280,11 +609,15 @@ public class CustomPDFGenerator implements ReportGenerator {
      */
     public static void insertReportGeneratedTimeToHeader(PDPageContentStream contentStream) throws IOException {
 
+        contentStream.setFont(PDType1Font.HELVETICA_BOLD, FONT_SIZE);
+        writeContent(contentStream, CELL_MARGIN, 510, getGeneratedTimeText());
+    }
+
+    static String getGeneratedTimeText() {
+
         SimpleDateFormat formato = new SimpleDateFormat("EEEE, d 'de' MMMM 'de' yyyy 'a las' hh:mm:ss a",
                 Locale.forLanguageTag("es-ES"));
-
-        contentStream.setFont(PDType1Font.HELVETICA_BOLD, FONT_SIZE);
-        writeContent(contentStream, CELL_MARGIN, 510, "Reporte generado el : " + formato.format(new Date()));
+        return "Reporte generado el : " + formato.format(new Date());
     }
 
     /**
@@ -310,7 +643,8 @@ public class CustomPDFGenerator implements ReportGenerator {
         for (int i = 0; i <= numberOfRows + 1; i++) {
             contentStream.drawLine(CELL_MARGIN, nextY, CELL_MARGIN + TABLE_WIDTH, nextY);
             nextY -= ROW_HEIGHT;
-            if (rowNum > RECORD_COUNT_PER_PAGE) {
+            // a full last page must not start another one, there is no page after it.
+            if (rowNum > RECORD_COUNT_PER_PAGE && i < numberOfRows + 1) {
                 contentStream.close();
                 currentPageNum++;
                 contentStream = new PDPageContentStream(document, pageMap.get(currentPageNum), true, false);
@@ -360,8 +694,7 @@ public class CustomPDFGenerator implements ReportGenerator {
             Map<Integer, PDPage> pageMap, List<RowEntry> rowEntries) throws IOException {
 
         float startX = CELL_MARGIN + CELL_PADDING; // space between entry and the column line
-        float startY = TABLE_TOP_Y - (ROW_HEIGHT / 2)
-                - ((TEXT_FONT.getFontDescriptor().getFontBoundingBox().getHeight() / 1000 * FONT_SIZE) / 4);
+        float startY = TABLE_TOP_Y - ROW_TEXT_OFFSET;
 
         PDPageContentStream contentStream = new PDPageContentStream(document, pageMap.get(1), true, false);
 
@@ -384,8 +717,7 @@ public class CustomPDFGenerator implements ReportGenerator {
                 contentStreamForData = new PDPageContentStream(document, pageMap.get(currentPageNum), true, false);
                 contentStream.concatenate2CTM(0, 1, -1, 0, pageMap.get(currentPageNum).getMediaBox().getWidth(), 0);
                 contentStreamForData.setFont(TEXT_FONT, FONT_SIZE);
-                startY = TABLE_TOP_Y - (ROW_HEIGHT / 2)
-                        - ((TEXT_FONT.getFontDescriptor().getFontBoundingBox().getHeight() / 1000 * FONT_SIZE) / 4);
+                startY = TABLE_TOP_Y - ROW_TEXT_OFFSET;
                 startX = CELL_MARGIN + CELL_PADDING;
                 rowNum = 1;
             }
@@ -448,8 +780,12 @@ public class CustomPDFGenerator implements ReportGenerator {
             throws IOException {
 
         contentStream.setFont(PDType1Font.HELVETICA_BOLD, FONT_SIZE);
-        writeContent(contentStream, CELL_MARGIN, 490,
-                "Total de peticiones realizadas : " + totalRequestCount.toString());
+        writeContent(contentStream, CELL_MARGIN, 490, getTotalRequestCountText(totalRequestCount));
+    }
+
+    static String getTotalRequestCountText(long totalRequestCount) {
+
+        return "Total de peticiones realizadas : " + totalRequestCount;
     }
 
     /**
@@ -0,0 +1,144 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cached text measurement for a font.
+ *
+ * The width of each of the 256 single-byte codes is looked up once per font, and string widths are memoized, so
+ * measuring the repetitive API and application names of a large report costs a hash lookup per cell instead of a
+ * walk through the font's width resources. Widths are the same as those of {@link PDFont#getStringWidth(String)},
+ * which measures strings as ISO-8859-1 bytes. Thread-safe.
+ */
+final class FontMetrics {
+
+    static final String ELLIPSIS = "...";
+    private static final int MAX_CACHED_WIDTHS = 64 * 1024;
+    private static final int SHORT_STRING_LENGTH = 12;
+    private static final Map<PDFont, FontMetrics> metrics = new ConcurrentHashMap<>();
+
+    private final float[] glyphWidths = new float[256];
+    private final Map<String, Float> stringWidths = new ConcurrentHashMap<>();
+    private final float ellipsisWidth;
+
+    private FontMetrics(PDFont font) throws IOException {
+
+        byte[] code = new byte[1];
+        for (int i = 0; i < glyphWidths.length; i++) {
+            code[0] = (byte) i;
+            glyphWidths[i] = font.getFontWidth(code, 0, 1);
+        }
+        this.ellipsisWidth = measure(ELLIPSIS);
+    }
+
+    /**
+     * Returns the metrics of a font, building its width table on first use.
+     *
+     * @param font the font.
+     * @return metrics of the font.
+     * @throws IOException if the widths of the font cannot be read.
+     */
+    static FontMetrics of(PDFont font) throws IOException {
+
+        FontMetrics fontMetrics = metrics.get(font);
+        if (fontMetrics == null) {
+            fontMetrics = new FontMetrics(font);
+            metrics.put(font, fontMetrics);
+        }
+        return fontMetrics;
+    }
+
+    /**
+     * Returns the width of a string.
+     *
+     * @param text     the string, may be null.
+     * @param fontSize font size.
+     * @return width in points.
+     */
+    float getStringWidth(String text, float fontSize) {
+
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        if (text.length() <= SHORT_STRING_LENGTH) {
+            // row numbers and counts are short and mostly distinct, summing them up beats a lookup.
+            return measure(text) * fontSize / 1000;
+        }
+        Float width = stringWidths.get(text);
+        if (width == null) {
+            if (stringWidths.size() >= MAX_CACHED_WIDTHS) {
+                // strings of a report are few and repeat a lot, so a full cache is simply started over.
+                stringWidths.clear();
+            }
+            width = measure(text);
+            stringWidths.put(text, width);
+        }
+        return width * fontSize / 1000;
+    }
+
+    /**
+     * Shortens a string to fit a width, replacing the cut off end by {@link #ELLIPSIS}.
+     *
+     * @param text     the string, may be null.
+     * @param fontSize font size.
+     * @param maxWidth available width in points.
+     * @return the string itself if it fits, otherwise its longest prefix that fits with the ellipsis appended.
+     */
+    String truncate(String text, float fontSize, float maxWidth) {
+
+        if (text == null || getStringWidth(text, fontSize) <= maxWidth) {
+            return text;
+        }
+        float budget = maxWidth * 1000 / fontSize - ellipsisWidth;
+        float width = 0;
+        int end = 0;
+        while (end < text.length()) {
+            float glyphWidth = glyphWidth(text.charAt(end));
+            if (width + glyphWidth > budget) {
+                break;
+            }
+            width += glyphWidth;
+            end++;
+        }
+        while (end > 0 && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return text.substring(0, end) + ELLIPSIS;
+    }
+
+    private float measure(String text) {
+
+        float width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += glyphWidth(text.charAt(i));
+        }
+        return width;
+    }
+
+    private float glyphWidth(char c) {
+
+        // characters outside ISO-8859-1 are measured as '?', as by PDFont#getStringWidth.
+        return glyphWidths[c < 256 ? c : '?'];
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only, memory-mapped snapshot of the aggregated usage of all tenants in a closed month.
+ *
+ * The file is big-endian and laid out as follows:
+ * <pre>
+ * header        magic "CPDS", format version, year, month, creation time, string count, tenant count,
+ *               record count, reserved, and the offsets of the four sections below ({@value #HEADER_SIZE} bytes)
+ * string index  string count + 1 int offsets into the string data
+ * string data   UTF-8 bytes of every distinct tenant domain, API name, version, application name and owner
+ * tenant index  per tenant: string id of the domain, first record, record count, total request count
+ * records       per row: string ids of API name, API version, application name and owner, and request count
+ * </pre>
+ * Records of a tenant are contiguous and keep the descending request count order of the query. Reads use
+ * absolute positions only, so a snapshot can be shared by concurrent reports.
+ */
+final class MonthlySnapshot {
+
+    static final int MAGIC = 0x43504453;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 72;
+    private static final int TENANT_ENTRY_SIZE = 20;
+    private static final int RECORD_SIZE = 24;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int year;
+    private final int month;
+    private final long createdMillis;
+    private final int stringCount;
+    private final long stringIndexPosition;
+    private final long stringDataPosition;
+    private final long recordsPosition;
+    private final String[] tenantDomains;
+    private final Map<String, Integer> tenantEntries;
+    private final long tenantIndexPosition;
+
+    private MonthlySnapshot(Path file, MappedByteBuffer buffer) throws IOException {
+
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a report snapshot: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported report snapshot version " + version + " in " + file
+                    + ", rebuild it.");
+        }
+        this.year = buffer.getInt(8);
+        this.month = buffer.getInt(12);
+        this.createdMillis = buffer.getLong(16);
+        this.stringCount = buffer.getInt(24);
+        int tenantCount = buffer.getInt(28);
+        int recordCount = buffer.getInt(32);
+        this.stringIndexPosition = buffer.getLong(40);
+        this.stringDataPosition = buffer.getLong(48);
+        this.tenantIndexPosition = buffer.getLong(56);
+        this.recordsPosition = buffer.getLong(64);
+        if (stringIndexPosition != HEADER_SIZE || stringDataPosition < stringIndexPosition + 4L * (stringCount + 1)
+                || tenantIndexPosition < stringDataPosition
+                || recordsPosition != tenantIndexPosition + (long) TENANT_ENTRY_SIZE * tenantCount
+                || buffer.capacity() != recordsPosition + (long) RECORD_SIZE * recordCount) {
+            throw new IOException("Truncated or corrupt report snapshot: " + file);
+        }
+        this.tenantDomains = new String[tenantCount];
+        this.tenantEntries = new HashMap<>(tenantCount * 2);
+        for (int i = 0; i < tenantCount; i++) {
+            tenantDomains[i] = getString(buffer.getInt(tenantEntryPosition(i)));
+            tenantEntries.put(tenantDomains[i], i);
+        }
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @param file the snapshot file.
+     * @return the snapshot.
+     * @throws IOException if the file cannot be read or is not a valid snapshot of the current format.
+     */
+    static MonthlySnapshot open(Path file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Report snapshot " + file + " is too large to be mapped.");
+            }
+            // the mapping stays valid after the channel is closed.
+            return new MonthlySnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes a snapshot to a file.
+     *
+     * @param file         the file to write, which is created or truncated.
+     * @param year         year of the data.
+     * @param month        month of the data.
+     * @param rowsByTenant aggregated rows of every tenant with usage in the month.
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(Path file, int year, int month, Map<String, UsageRows> rowsByTenant) throws IOException {
+
+        StringDictionary dictionary = new StringDictionary();
+        int recordCount = 0;
+        for (Map.Entry<String, UsageRows> entry : rowsByTenant.entrySet()) {
+            dictionary.intern(entry.getKey());
+            UsageRows rows = entry.getValue();
+            for (int i = 0; i < rows.size(); i++) {
+                dictionary.intern(rows.getApiName(i));
+                dictionary.intern(rows.getApiVersion(i));
+                dictionary.intern(rows.getApplicationName(i));
+                dictionary.intern(rows.getApplicationOwner(i));
+            }
+            recordCount += rows.size();
+        }
+        List<byte[]> strings = new ArrayList<>(dictionary.size());
+        long stringDataLength = 0;
+        for (int i = 0; i < dictionary.size(); i++) {
+            byte[] bytes = dictionary.get(i).getBytes(StandardCharsets.UTF_8);
+            strings.add(bytes);
+            stringDataLength += bytes.length;
+        }
+        long stringIndexPosition = HEADER_SIZE;
+        long stringDataPosition = stringIndexPosition + 4L * (strings.size() + 1);
+        long tenantIndexPosition = stringDataPosition + stringDataLength;
+        long recordsPosition = tenantIndexPosition + (long) TENANT_ENTRY_SIZE * rowsByTenant.size();
+
+        try (OutputStream fileOut = Files.newOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(year);
+            out.writeInt(month);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(strings.size());
+            out.writeInt(rowsByTenant.size());
+            out.writeInt(recordCount);
+            out.writeInt(0);
+            out.writeLong(stringIndexPosition);
+            out.writeLong(stringDataPosition);
+            out.writeLong(tenantIndexPosition);
+            out.writeLong(recordsPosition);
+
+            int offset = 0;
+            for (byte[] bytes : strings) {
+                out.writeInt(offset);
+                offset += bytes.length;
+            }
+            out.writeInt(offset);
+            for (byte[] bytes : strings) {
+                out.write(bytes);
+            }
+
+            int firstRecord = 0;
+            for (Map.Entry<String, UsageRows> entry : rowsByTenant.entrySet()) {
+                UsageRows rows = entry.getValue();
+                out.writeInt(dictionary.intern(entry.getKey()));
+                out.writeInt(firstRecord);
+                out.writeInt(rows.size());
+                out.writeLong(rows.getTotalRequestCount());
+                firstRecord += rows.size();
+            }
+            for (UsageRows rows : rowsByTenant.values()) {
+                for (int i = 0; i < rows.size(); i++) {
+                    out.writeInt(dictionary.intern(rows.getApiName(i)));
+                    out.writeInt(dictionary.intern(rows.getApiVersion(i)));
+                    out.writeInt(dictionary.intern(rows.getApplicationName(i)));
+                    out.writeInt(dictionary.intern(rows.getApplicationOwner(i)));
+                    out.writeLong(rows.getRequestCount(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param tenantDomain tenant domain.
+     * @return true if the tenant had usage in the month.
+     */
+    boolean hasTenant(String tenantDomain) {
+
+        return tenantEntries.containsKey(tenantDomain);
+    }
+
+    /**
+     * Reads the rows of a tenant.
+     *
+     * @param tenantDomain tenant domain.
+     * @return the rows, empty if the tenant had no usage in the month.
+     */
+    UsageRows getTenantRows(String tenantDomain) {
+
+        Integer entry = tenantEntries.get(tenantDomain);
+        if (entry == null) {
+            return new UsageRows();
+        }
+        return readRows(entry, new StringDictionary(), new HashMap<Integer, String>());
+    }
+
+    /**
+     * Reads the rows of all tenants. Each tenant gets a dictionary of its own, as those of
+     * {@link AllTenantsAggregation}, while strings used by several tenants are decoded once.
+     *
+     * @return rows keyed by tenant domain, in the order they were written.
+     */
+    Map<String, UsageRows> getAllTenantRows() {
+
+        Map<String, UsageRows> rowsByTenant = new LinkedHashMap<>();
+        Map<Integer, String> decoded = new HashMap<>();
+        for (int i = 0; i < tenantDomains.length; i++) {
+            rowsByTenant.put(tenantDomains[i], readRows(i, new StringDictionary(), decoded));
+        }
+        return rowsByTenant;
+    }
+
+    private UsageRows readRows(int entry, StringDictionary dictionary, Map<Integer, String> decoded) {
+
+        int position = tenantEntryPosition(entry);
+        int firstRecord = buffer.getInt(position + 4);
+        int recordCount = buffer.getInt(position + 8);
+        UsageRows rows = new UsageRows(dictionary, recordCount);
+        int recordPosition = (int) (recordsPosition + (long) RECORD_SIZE * firstRecord);
+        for (int i = 0; i < recordCount; i++) {
+            rows.add(getString(buffer.getInt(recordPosition), decoded),
+                    getString(buffer.getInt(recordPosition + 4), decoded),
+                    getString(buffer.getInt(recordPosition + 8), decoded),
+                    getString(buffer.getInt(recordPosition + 12), decoded), buffer.getLong(recordPosition + 16));
+            recordPosition += RECORD_SIZE;
+        }
+        return rows;
+    }
+
+    private String getString(int id, Map<Integer, String> decoded) {
+
+        String value = decoded.get(id);
+        if (value == null) {
+            value = getString(id);
+            decoded.put(id, value);
+        }
+        return value;
+    }
+
+    private String getString(int id) {
+
+        if (id < 0 || id >= stringCount) {
+            throw new IllegalStateException("Corrupt report snapshot " + file + ": string id " + id);
+        }
+        int index = (int) stringIndexPosition + 4 * id;
+        int start = buffer.getInt(index);
+        int end = buffer.getInt(index + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer data = buffer.duplicate();
+        data.position((int) stringDataPosition + start);
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int tenantEntryPosition(int entry) {
+
+        return (int) (tenantIndexPosition + (long) TENANT_ENTRY_SIZE * entry);
+    }
+
+    int getYear() {
+
+        return year;
+    }
+
+    int getMonth() {
+
+        return month;
+    }
+
+    long getCreatedMillis() {
+
+        return createdMillis;
+    }
+
+    int getTenantCount() {
+
+        return tenantDomains.length;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shape of a Siddhi on-demand query with named parameters, written as {@code ${name}}, that are bound to string
+ * literals.
+ *
+ * Siddhi only accepts on-demand queries as text, so a template is parsed once into its literal parts and the
+ * parameters are bound by quoting each value so that it cannot end the literal early, e.g. a tenant domain
+ * containing a quote. Binding the same values always yields the same text, which lets a runtime reuse the plan it
+ * keeps for a query it has run before. Templates are immutable and thread-safe.
+ */
+final class OnDemandQueryTemplate {
+
+    private static final String TRIPLE_QUOTE = "\"\"\"";
+
+    private final String[] parts;
+    private final String[] parameters;
+    private final int length;
+
+    private OnDemandQueryTemplate(String[] parts, String[] parameters, int length) {
+
+        this.parts = parts;
+        this.parameters = parameters;
+        this.length = length;
+    }
+
+    /**
+     * Parses a query shape.
+     *
+     * @param shape query text with {@code ${name}} placeholders where literals are bound.
+     * @return the compiled template.
+     * @throws IllegalArgumentException if a placeholder is not closed or has no name.
+     */
+    static OnDemandQueryTemplate compile(String shape) {
+
+        List<String> parts = new ArrayList<>();
+        List<String> parameters = new ArrayList<>();
+        int length = 0;
+        int from = 0;
+        int start;
+        while ((start = shape.indexOf("${", from)) >= 0) {
+            int end = shape.indexOf('}', start + 2);
+            if (end < 0 || end == start + 2) {
+                throw new IllegalArgumentException("Malformed parameter at " + start + " in query: " + shape);
+            }
+            parts.add(shape.substring(from, start));
+            parameters.add(shape.substring(start + 2, end));
+            length += start - from;
+            from = end + 1;
+        }
+        parts.add(shape.substring(from));
+        length += shape.length() - from;
+        return new OnDemandQueryTemplate(parts.toArray(new String[0]), parameters.toArray(new String[0]), length);
+    }
+
+    /**
+     * Binds values to the parameters.
+     *
+     * @param values one value per parameter, in the order the parameters appear in the shape.
+     * @return the query text.
+     * @throws IllegalArgumentException if the number of values does not match or a value cannot be quoted.
+     */
+    String bind(String... values) {
+
+        if (values.length != parameters.length) {
+            throw new IllegalArgumentException("Expected " + parameters.length + " query parameters but got "
+                    + values.length + ".");
+        }
+        StringBuilder query = new StringBuilder(length + 16 * values.length);
+        query.append(parts[0]);
+        for (int i = 0; i < values.length; i++) {
+            query.append(quote(parameters[i], values[i]));
+            query.append(parts[i + 1]);
+        }
+        return query.toString();
+    }
+
+    /**
+     * Quotes a value as a Siddhi string literal. SiddhiQL has no escape sequences: a single-quoted literal may hold
+     * neither quote, a double-quoted one no double quote, and a triple-quoted one ends at the first triple quote. The
+     * value is enclosed in the first of these that can hold it.
+     *
+     * @param name  name of the parameter, for the error message.
+     * @param value the value.
+     * @return the quoted value.
+     * @throws IllegalArgumentException if the value is null, contains a control character or cannot be quoted.
+     */
+    static String quote(String name, String value) {
+
+        if (value == null) {
+            throw new IllegalArgumentException("Query parameter " + name + " is null.");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < ' ') {
+                throw new IllegalArgumentException("Query parameter " + name + " contains a control character.");
+            }
+        }
+        String quote;
+        if (value.indexOf('"') < 0) {
+            quote = value.indexOf('\'') < 0 ? "'" : "\"";
+        } else if (!value.contains(TRIPLE_QUOTE) && !value.endsWith("\"")) {
+            // a trailing double quote would be read as the first quote of the closing triple quote.
+            quote = TRIPLE_QUOTE;
+        } else {
+            throw new IllegalArgumentException("Query parameter " + name + " cannot be quoted: " + value);
+        }
+        return quote + value + quote;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+
+/**
+ * Writes all text of a page into a single text object.
+ *
+ * Strings are positioned with moves relative to the previous one instead of a text object per string, and the font
+ * is only set when it changes, which keeps the content stream to one Td and one Tj per non-empty string.
+ */
+final class PageTextWriter {
+
+    private final PDPageContentStream contentStream;
+    private float lineX;
+    private float lineY;
+    private PDFont font;
+    private float fontSize;
+
+    /**
+     * Begins the text object.
+     *
+     * @param contentStream content stream of the page, which must not be in a text object.
+     * @throws IOException
+     */
+    PageTextWriter(PDPageContentStream contentStream) throws IOException {
+
+        this.contentStream = contentStream;
+        contentStream.beginText();
+    }
+
+    /**
+     * Sets the font of the following strings.
+     *
+     * @param font     the font.
+     * @param fontSize the font size.
+     * @throws IOException
+     */
+    void setFont(PDFont font, float fontSize) throws IOException {
+
+        if (font != this.font || fontSize != this.fontSize) {
+            contentStream.setFont(font, fontSize);
+            this.font = font;
+            this.fontSize = fontSize;
+        }
+    }
+
+    /**
+     * Writes a string starting at the given position. Null and empty strings write nothing.
+     *
+     * @param positionX x-axis position.
+     * @param positionY y-axis position.
+     * @param text      the content to write.
+     * @throws IOException
+     */
+    void write(float positionX, float positionY, String text) throws IOException {
+
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        // Td is relative to the start of the previous line, which is the origin right after BT.
+        contentStream.moveTextPositionByAmount(positionX - lineX, positionY - lineY);
+        lineX = positionX;
+        lineY = positionY;
+        contentStream.drawString(text);
+    }
+
+    /**
+     * Ends the text object.
+     *
+     * @throws IOException
+     */
+    void end() throws IOException {
+
+        contentStream.endText();
+    }
+}
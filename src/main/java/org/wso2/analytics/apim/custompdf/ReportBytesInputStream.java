@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Input stream over a report generated on the heap, whose bytes can be taken over without copying them.
+ */
+final class ReportBytesInputStream extends ByteArrayInputStream {
+
+    /**
+     * @param report the generated report, which must not be modified afterwards.
+     */
+    ReportBytesInputStream(byte[] report) {
+
+        super(report);
+    }
+
+    /**
+     * Returns the whole report regardless of how much of the stream was read. The array is shared, not copied.
+     *
+     * @return the report bytes.
+     */
+    byte[] getBytes() {
+
+        return buf;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of finished report PDFs and of the aggregated rows they were rendered from.
+ *
+ * Reports of closed months never change, so they are kept in size-bounded LRU regions on the heap. PDFs evicted
+ * from the heap are spilled to {@link ReportConfig#getCacheDirectory()} when configured and read back from there on
+ * a later miss. Reports of the current month are cached only when {@link ReportConfig#getCurrentMonthTtlSeconds()}
+ * is positive, and then only on the heap for that long. Note that a cached PDF keeps the generation time printed
+ * when it was first rendered.
+ */
+public final class ReportCache implements ReportCacheMXBean {
+
+    private static final Log log = LogFactory.getLog(ReportCache.class);
+    private static final String FILE_PREFIX = "report~";
+    private static final String FILE_SUFFIX = ".pdf";
+    private static volatile ReportCache instance;
+
+    private final boolean enabled;
+    private final long currentMonthTtlMillis;
+    private final Path directory;
+    private final WeightedLruCache<ReportCacheKey, byte[]> pdfs;
+    private final WeightedLruCache<ReportCacheKey, UsageRows> tables;
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong diskWrites = new AtomicLong();
+
+    private ReportCache(boolean enabled, long maxPdfBytes, long maxTableRows, long currentMonthTtlMillis,
+            Path directory) {
+
+        this.enabled = enabled;
+        this.currentMonthTtlMillis = currentMonthTtlMillis;
+        this.directory = directory;
+        this.pdfs = new WeightedLruCache<>(maxPdfBytes, pdf -> pdf.length,
+                directory == null ? null : this::spillToDisk);
+        this.tables = new WeightedLruCache<>(maxTableRows, rows -> Math.max(1, rows.size()),
+                null);
+    }
+
+    /**
+     * Returns the shared cache, creating it on first use.
+     *
+     * @return the process-wide report cache.
+     */
+    public static ReportCache getInstance() {
+
+        ReportCache cache = instance;
+        if (cache == null) {
+            synchronized (ReportCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    String dir = ReportConfig.getCacheDirectory();
+                    cache = new ReportCache(ReportConfig.isCacheEnabled(), ReportConfig.getCachePdfMaxBytes(),
+                            ReportConfig.getCacheTableMaxRows(),
+                            TimeUnit.SECONDS.toMillis(ReportConfig.getCurrentMonthTtlSeconds()),
+                            dir == null ? null : Paths.get(dir));
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Tells whether data of the report would be kept by the cache.
+     *
+     * @param key report key.
+     * @return true if the report may be cached.
+     */
+    public boolean isCacheable(ReportCacheKey key) {
+
+        return getTtlMillis(key) >= 0;
+    }
+
+    /**
+     * Returns the cached PDF of a report.
+     *
+     * @param key report key.
+     * @return the PDF bytes, or null if not cached.
+     */
+    public byte[] getPdf(ReportCacheKey key) {
+
+        if (getTtlMillis(key) < 0) {
+            return null;
+        }
+        byte[] pdf = pdfs.get(key);
+        if (pdf == null && directory != null && isClosedMonth(key)) {
+            pdf = readFromDisk(key);
+            if (pdf != null) {
+                diskHits.incrementAndGet();
+                pdfs.put(key, pdf, 0);
+            }
+        }
+        return pdf;
+    }
+
+    /**
+     * Caches the PDF of a report.
+     *
+     * @param key report key.
+     * @param pdf the PDF bytes.
+     */
+    public void putPdf(ReportCacheKey key, byte[] pdf) {
+
+        long ttl = getTtlMillis(key);
+        if (ttl >= 0) {
+            pdfs.put(key, pdf, ttl);
+        }
+    }
+
+    /**
+     * Returns the cached aggregated data of a report.
+     *
+     * @param key report key.
+     * @return the cached rows, or null if not cached.
+     */
+    public UsageRows getTable(ReportCacheKey key) {
+
+        if (getTtlMillis(key) < 0) {
+            return null;
+        }
+        return tables.get(key);
+    }
+
+    /**
+     * Caches the aggregated data of a report.
+     *
+     * @param key  report key.
+     * @param rows the aggregated rows, which must not be modified afterwards. A copy without their unused capacity
+     *             is cached if they have any, so that the caller's rows are left as they are.
+     */
+    public void putTable(ReportCacheKey key, UsageRows rows) {
+
+        long ttl = getTtlMillis(key);
+        if (ttl >= 0) {
+            tables.put(key, rows.trimmed(), ttl);
+        }
+    }
+
+    /**
+     * Removes all cached data of a tenant's monthly report, e.g. after late-arriving events were aggregated. The
+     * tenant is also invalidated in the {@link SnapshotStore} snapshot of the month, as reports read it before the
+     * cache. A report that read the old rows before this call may still return them and cache them again once it
+     * finishes, so invalidate after the late events were aggregated and, if reports were running, once more after
+     * they finished.
+     *
+     * @param tenantDomain tenant domain.
+     * @param year         year of the report.
+     * @param month        month of the report.
+     */
+    public void invalidate(final String tenantDomain, final int year, final int month) {
+
+        WeightedLruCache.KeyFilter<ReportCacheKey> filter = key -> key.getTenantDomain().equals(tenantDomain)
+                && key.getYear() == year && key.getMonth() == month;
+        // the snapshot first, so that reports starting after this call read neither the snapshot nor the cache.
+        SnapshotStore.getInstance().invalidate(tenantDomain, year, month);
+        pdfs.removeIf(filter);
+        tables.removeIf(filter);
+        deleteFromDisk(filePrefix(tenantDomain) + year + "~" + month + "~");
+    }
+
+    /**
+     * Removes all cached data of a tenant, and invalidates the tenant in the {@link SnapshotStore} snapshots of the
+     * months it had usage in.
+     *
+     * @param tenantDomain tenant domain.
+     */
+    public void invalidateTenant(final String tenantDomain) {
+
+        WeightedLruCache.KeyFilter<ReportCacheKey> filter = key -> key.getTenantDomain().equals(tenantDomain);
+        SnapshotStore.getInstance().invalidateTenant(tenantDomain);
+        pdfs.removeIf(filter);
+        tables.removeIf(filter);
+        deleteFromDisk(filePrefix(tenantDomain));
+    }
+
+    /**
+     * Removes everything from the heap and disk caches.
+     */
+    @Override
+    public void clear() {
+
+        pdfs.clear();
+        tables.clear();
+        deleteFromDisk(FILE_PREFIX);
+    }
+
+    /**
+     * Returns the time to live of an entry for the report.
+     *
+     * @param key report key.
+     * @return 0 for no expiry, a positive TTL in milliseconds, or -1 if the report must not be cached.
+     */
+    private long getTtlMillis(ReportCacheKey key) {
+
+        if (!enabled) {
+            return -1;
+        }
+        if (isClosedMonth(key)) {
+            return 0;
+        }
+        if (YearMonth.of(key.getYear(), key.getMonth()).equals(YearMonth.now()) && currentMonthTtlMillis > 0) {
+            return currentMonthTtlMillis;
+        }
+        return -1;
+    }
+
+    private static boolean isClosedMonth(ReportCacheKey key) {
+
+        return YearMonth.of(key.getYear(), key.getMonth()).isBefore(YearMonth.now());
+    }
+
+    private void spillToDisk(ReportCacheKey key, byte[] pdf) {
+
+        if (!isClosedMonth(key)) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path target = directory.resolve(fileName(key));
+            Path temp = Files.createTempFile(directory, "spill", ".tmp");
+            try {
+                Files.write(temp, pdf);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            diskWrites.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("Could not spill report " + key + " to " + directory, e);
+        }
+    }
+
+    private byte[] readFromDisk(ReportCacheKey key) {
+
+        try {
+            return Files.readAllBytes(directory.resolve(fileName(key)));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Could not read cached report " + key + " from " + directory, e);
+            return null;
+        }
+    }
+
+    private void deleteFromDisk(String prefix) {
+
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix.replace("*", "\\*") + "*")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete cached reports from " + directory, e);
+        }
+    }
+
+    private static String fileName(ReportCacheKey key) {
+
+        return filePrefix(key.getTenantDomain()) + key.getYear() + "~" + key.getMonth() + "~"
+                + key.getTemplateVersion() + FILE_SUFFIX;
+    }
+
+    private static String filePrefix(String tenantDomain) {
+
+        try {
+            // URL encoding escapes '~', so the separator can never appear inside an encoded tenant domain.
+            return FILE_PREFIX + URLEncoder.encode(tenantDomain, "UTF-8") + "~";
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long getPdfHits() {
+
+        return pdfs.getHits();
+    }
+
+    @Override
+    public long getPdfMisses() {
+
+        return pdfs.getMisses();
+    }
+
+    @Override
+    public long getPdfEvictions() {
+
+        return pdfs.getEvictions();
+    }
+
+    @Override
+    public long getPdfBytes() {
+
+        return pdfs.getWeight();
+    }
+
+    @Override
+    public long getPdfDiskHits() {
+
+        return diskHits.get();
+    }
+
+    @Override
+    public long getPdfDiskWrites() {
+
+        return diskWrites.get();
+    }
+
+    @Override
+    public long getTableHits() {
+
+        return tables.getHits();
+    }
+
+    @Override
+    public long getTableMisses() {
+
+        return tables.getMisses();
+    }
+
+    @Override
+    public long getTableEvictions() {
+
+        return tables.getEvictions();
+    }
+
+    @Override
+    public long getTableRows() {
+
+        return tables.getWeight();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * Identifies a monthly report of a tenant rendered with a given template version.
+ */
+public final class ReportCacheKey {
+
+    private final String tenantDomain;
+    private final int year;
+    private final int month;
+    private final String templateVersion;
+
+    /**
+     * @param tenantDomain    API creator tenant domain.
+     * @param year            year of the report.
+     * @param month           month of the report, 1 to 12.
+     * @param templateVersion version of the report layout.
+     */
+    public ReportCacheKey(String tenantDomain, int year, int month, String templateVersion) {
+
+        this.tenantDomain = tenantDomain;
+        this.year = year;
+        this.month = month;
+        this.templateVersion = templateVersion;
+    }
+
+    public String getTenantDomain() {
+
+        return tenantDomain;
+    }
+
+    public int getYear() {
+
+        return year;
+    }
+
+    public int getMonth() {
+
+        return month;
+    }
+
+    public String getTemplateVersion() {
+
+        return templateVersion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ReportCacheKey)) {
+            return false;
+        }
+        ReportCacheKey that = (ReportCacheKey) o;
+        return year == that.year && month == that.month && tenantDomain.equals(that.tenantDomain)
+                && templateVersion.equals(that.templateVersion);
+    }
+
+    @Override
+    public int hashCode() {
+
+        int result = tenantDomain.hashCode();
+        result = 31 * result + year;
+        result = 31 * result + month;
+        result = 31 * result + templateVersion.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+
+        return tenantDomain + "/" + year + "-" + month + "/v" + templateVersion;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * JMX view of the {@link ReportCache}.
+ */
+public interface ReportCacheMXBean {
+
+    long getPdfHits();
+
+    long getPdfMisses();
+
+    long getPdfEvictions();
+
+    long getPdfBytes();
+
+    long getPdfDiskHits();
+
+    long getPdfDiskWrites();
+
+    long getTableHits();
+
+    long getTableMisses();
+
+    long getTableEvictions();
+
+    long getTableRows();
+
+    void clear();
+}
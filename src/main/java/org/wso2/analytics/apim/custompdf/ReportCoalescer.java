@@ -0,0 +1,349 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.analytics.apim.rest.api.report.exception.PDFReportException;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent requests for the same report share a single generation.
+ *
+ * The first request for a report generates it while later requests for the same report wait on its future, and
+ * every caller gets its own stream over the shared PDF: a byte array, or in file output mode the temporary file,
+ * which is deleted once the last of these streams is closed. If the generation fails, every waiting request fails
+ * with the same cause. If the generating request is cancelled, i.e. its thread is interrupted, the waiting requests
+ * are not failed; one of them generates the report instead. A waiting request that is interrupted stops waiting
+ * without affecting the others.
+ */
+public final class ReportCoalescer {
+
+    private static final Log log = LogFactory.getLog(ReportCoalescer.class);
+    private static volatile ReportCoalescer instance;
+
+    private final ConcurrentHashMap<ReportCacheKey, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong generatedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    ReportCoalescer() {
+
+    }
+
+    /**
+     * Returns the shared coalescer, creating it on first use.
+     *
+     * @return the process-wide coalescer.
+     */
+    public static ReportCoalescer getInstance() {
+
+        ReportCoalescer coalescer = instance;
+        if (coalescer == null) {
+            synchronized (ReportCoalescer.class) {
+                coalescer = instance;
+                if (coalescer == null) {
+                    coalescer = new ReportCoalescer();
+                    instance = coalescer;
+                }
+            }
+        }
+        return coalescer;
+    }
+
+    /**
+     * Generates a report, or waits for the generation of the same report by a concurrent request.
+     *
+     * @param key        identifies the report.
+     * @param generation generates the report if no request for it is in flight.
+     * @return a stream over the PDF, owned by the caller, or null if there was no data.
+     * @throws PDFReportException if the report cannot be generated or the caller is interrupted while waiting.
+     */
+    InputStream generate(ReportCacheKey key, Generation generation) throws PDFReportException {
+
+        while (true) {
+            Flight flight = new Flight();
+            Flight running = flights.putIfAbsent(key, flight);
+            if (running == null) {
+                return lead(key, flight, generation);
+            }
+            // a flight whose result was already disposed of cannot be joined, so another one is started.
+            if (!running.join()) {
+                continue;
+            }
+            SharedReport report = await(key, running);
+            if (report != null) {
+                coalescedCount.incrementAndGet();
+                if (log.isDebugEnabled()) {
+                    log.debug("Serving report " + key + " generated for a concurrent request.");
+                }
+                return open(report, running);
+            }
+        }
+    }
+
+    private InputStream lead(ReportCacheKey key, Flight flight, Generation generation) throws PDFReportException {
+
+        SharedReport report;
+        try {
+            report = share(generation.generate());
+        } catch (IOException e) {
+            abandon(key, flight, e);
+            throw new PDFReportException("Error during generating monthly request summary report.", e);
+        } catch (PDFReportException | RuntimeException | Error e) {
+            abandon(key, flight, e);
+            throw e;
+        }
+        generatedCount.incrementAndGet();
+        flights.remove(key, flight);
+        flight.future.complete(report);
+        return open(report, flight);
+    }
+
+    private void abandon(ReportCacheKey key, Flight flight, Throwable cause) {
+
+        flights.remove(key, flight);
+        if (Thread.currentThread().isInterrupted()) {
+            // the generating request was cancelled, which is no reason to fail the others.
+            flight.future.cancel(false);
+        } else {
+            flight.future.completeExceptionally(cause);
+        }
+        flight.release();
+    }
+
+    /**
+     * Waits for a flight the caller has joined. The caller's reference is dropped unless a report is returned.
+     *
+     * @return the report, or null if the generating request was cancelled.
+     */
+    private static SharedReport await(ReportCacheKey key, Flight flight) throws PDFReportException {
+
+        try {
+            return flight.future.get();
+        } catch (CancellationException e) {
+            flight.release();
+            return null;
+        } catch (ExecutionException e) {
+            flight.release();
+            throw new PDFReportException("Error during generating monthly request summary report " + key + ".",
+                    e.getCause());
+        } catch (InterruptedException e) {
+            flight.release();
+            Thread.currentThread().interrupt();
+            throw new PDFReportException("Interrupted while waiting for report " + key + ".", e);
+        }
+    }
+
+    private static InputStream open(SharedReport report, Flight flight) throws PDFReportException {
+
+        try {
+            return report.open(flight);
+        } catch (IOException e) {
+            throw new PDFReportException("Error while reading generated report.", e);
+        }
+    }
+
+    private static SharedReport share(InputStream in) throws IOException {
+
+        if (in == null) {
+            return SharedReport.EMPTY;
+        }
+        if (in instanceof TempFileInputStream) {
+            return new SharedFile(((TempFileInputStream) in).detach());
+        }
+        if (in instanceof ReportBytesInputStream) {
+            return new SharedBytes(((ReportBytesInputStream) in).getBytes());
+        }
+        try {
+            return new SharedBytes(IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return number of reports generated through the coalescer.
+     */
+    public long getGeneratedCount() {
+
+        return generatedCount.get();
+    }
+
+    /**
+     * @return number of requests served with a report generated for a concurrent request.
+     */
+    public long getCoalescedCount() {
+
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return number of reports being generated.
+     */
+    public int getInFlightCount() {
+
+        return flights.size();
+    }
+
+    /**
+     * Generates a report on the thread of the first request.
+     */
+    interface Generation {
+
+        InputStream generate() throws IOException, PDFReportException;
+    }
+
+    /**
+     * Generation of one report. A reference is held by the generating request and by each joined request until it
+     * has opened its stream or given up, and by each open stream over a file until it is closed. The result is
+     * disposed of when the last reference is dropped.
+     */
+    private static final class Flight {
+
+        private final CompletableFuture<SharedReport> future = new CompletableFuture<>();
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * Takes a reference unless the result was already disposed of.
+         */
+        private boolean join() {
+
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+
+            if (references.decrementAndGet() == 0 && future.isDone() && !future.isCompletedExceptionally()) {
+                future.getNow(null).dispose();
+            }
+        }
+    }
+
+    /**
+     * Result of a generation that every request reads with a stream of its own.
+     */
+    private abstract static class SharedReport {
+
+        private static final SharedReport EMPTY = new SharedReport() {
+
+            @Override
+            InputStream open(Flight flight) {
+
+                flight.release();
+                return null;
+            }
+        };
+
+        /**
+         * Opens a stream, taking over a reference of the caller to the flight.
+         */
+        abstract InputStream open(Flight flight) throws IOException;
+
+        void dispose() {
+
+        }
+    }
+
+    private static final class SharedBytes extends SharedReport {
+
+        private final byte[] pdf;
+
+        private SharedBytes(byte[] pdf) {
+
+            this.pdf = pdf;
+        }
+
+        @Override
+        InputStream open(Flight flight) {
+
+            // the array is not modified, so streams over it need no reference.
+            flight.release();
+            return new ReportBytesInputStream(pdf);
+        }
+    }
+
+    private static final class SharedFile extends SharedReport {
+
+        private final Path file;
+
+        private SharedFile(Path file) {
+
+            this.file = file;
+        }
+
+        @Override
+        InputStream open(final Flight flight) throws IOException {
+
+            InputStream in;
+            try {
+                in = new BufferedInputStream(Files.newInputStream(file));
+            } catch (IOException | RuntimeException e) {
+                flight.release();
+                throw e;
+            }
+            return new FilterInputStream(in) {
+
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        flight.release();
+                    }
+                }
+            };
+        }
+
+        @Override
+        void dispose() {
+
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete temporary report file " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * Tuning options of the custom report generator.
+ *
+ * The dashboard instantiates the generator reflectively through the report:implClass setting, so options are
+ * read from system properties (e.g. -Dcustompdf.siddhi.pool.size=4 in the dashboard startup script).
+ */
+public final class ReportConfig {
+
+    private static final String PREFIX = "custompdf.";
+
+    /**
+     * Maximum number of Siddhi runtimes kept for concurrent aggregation queries.
+     */
+    public static final String SIDDHI_POOL_SIZE = PREFIX + "siddhi.pool.size";
+
+    /**
+     * Seconds to wait for a free Siddhi runtime before failing the report.
+     */
+    public static final String SIDDHI_POOL_TIMEOUT = PREFIX + "siddhi.pool.timeout";
+
+    /**
+     * Whether finished reports and their aggregated data are cached.
+     */
+    public static final String CACHE_ENABLED = PREFIX + "cache.enabled";
+
+    /**
+     * Maximum total size in bytes of the PDFs kept on the heap.
+     */
+    public static final String CACHE_PDF_MAX_BYTES = PREFIX + "cache.pdf.maxBytes";
+
+    /**
+     * Maximum total number of aggregated rows kept on the heap.
+     */
+    public static final String CACHE_TABLE_MAX_ROWS = PREFIX + "cache.table.maxRows";
+
+    /**
+     * Directory to which PDFs of closed months are spilled when evicted from the heap. Unset disables spilling.
+     */
+    public static final String CACHE_DIRECTORY = PREFIX + "cache.dir";
+
+    /**
+     * Seconds for which reports of the current month are cached. 0 bypasses the cache for the current month.
+     */
+    public static final String CACHE_CURRENT_MONTH_TTL = PREFIX + "cache.currentMonth.ttl";
+
+    /**
+     * How the finished PDF is handed back: "memory" (default) returns it from a byte array, "file" saves it to a
+     * temporary file which is streamed and deleted when the stream is closed.
+     */
+    public static final String OUTPUT_MODE = PREFIX + "output.mode";
+
+    /**
+     * Directory for temporary report files. Defaults to java.io.tmpdir.
+     */
+    public static final String OUTPUT_TEMP_DIRECTORY = PREFIX + "output.tmpdir";
+
+    /**
+     * Whether the stream data of finished pages is kept in a scratch file in the temporary directory instead of on
+     * the heap while a report is rendered.
+     */
+    public static final String RENDER_SCRATCH_FILE = PREFIX + "render.scratchFile";
+
+    /**
+     * Maximum number of reports generated at once by a batch run.
+     */
+    public static final String BATCH_PARALLELISM = PREFIX + "batch.parallelism";
+
+    /**
+     * Maximum number of batch reports waiting for a free worker before submission blocks.
+     */
+    public static final String BATCH_QUEUE_CAPACITY = PREFIX + "batch.queueCapacity";
+
+    /**
+     * Seconds a single report of a batch run may take before it is cancelled.
+     */
+    public static final String BATCH_TENANT_TIMEOUT = PREFIX + "batch.tenantTimeout";
+
+    /**
+     * Whether batch runs use virtual threads when the JVM supports them.
+     */
+    public static final String BATCH_VIRTUAL_THREADS = PREFIX + "batch.virtualThreads";
+
+    /**
+     * Whether batch runs aggregate all tenants with a single query instead of one query per tenant.
+     */
+    public static final String BATCH_SINGLE_QUERY = PREFIX + "batch.singleQuery";
+
+    /**
+     * Whether report generation is timed per phase and exposed through JMX and {@link ReportMetricsListener}s.
+     */
+    public static final String METRICS_ENABLED = PREFIX + "metrics.enabled";
+
+    /**
+     * Class name of a {@link ReportMetricsListener} with a public no-argument constructor to register at startup.
+     */
+    public static final String METRICS_LISTENER = PREFIX + "metrics.listener";
+
+    /**
+     * Number of report jobs generated at once in the background.
+     */
+    public static final String JOB_WORKERS = PREFIX + "jobs.workers";
+
+    /**
+     * Maximum number of report jobs waiting for a worker before new jobs are rejected.
+     */
+    public static final String JOB_QUEUE_CAPACITY = PREFIX + "jobs.queueCapacity";
+
+    /**
+     * Seconds for which finished report jobs and their PDFs are kept for download.
+     */
+    public static final String JOB_RETENTION = PREFIX + "jobs.retention";
+
+    /**
+     * Directory of the memory-mapped usage snapshots of closed months. Unset disables snapshots.
+     */
+    public static final String SNAPSHOT_DIRECTORY = PREFIX + "snapshot.dir";
+
+    /**
+     * Number of rows with the largest request counts printed on a report, the rest being summed up in an "Otros"
+     * row. 0 prints all rows.
+     */
+    public static final String REPORT_TOP_N = PREFIX + "report.topN";
+
+    /**
+     * Whether column widths are fitted to the content of each report instead of the fixed default widths.
+     */
+    public static final String RENDER_AUTO_FIT = PREFIX + "render.autoFit";
+
+    /**
+     * Whether concurrent requests for the same monthly report share a single generation.
+     */
+    public static final String COALESCE_ENABLED = PREFIX + "coalesce.enabled";
+
+    /**
+     * Number of threads encoding the pages of a report in parallel. 1 renders pages on the calling thread.
+     */
+    public static final String RENDER_PARALLELISM = PREFIX + "render.parallelism";
+
+    private ReportConfig() {
+
+    }
+
+    public static int getSiddhiPoolSize() {
+
+        return Math.max(1, Integer.getInteger(SIDDHI_POOL_SIZE, 2));
+    }
+
+    public static long getSiddhiPoolTimeoutSeconds() {
+
+        return Math.max(1, Long.getLong(SIDDHI_POOL_TIMEOUT, 60));
+    }
+
+    public static boolean isCacheEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(CACHE_ENABLED, "true"));
+    }
+
+    public static long getCachePdfMaxBytes() {
+
+        return Math.max(0, Long.getLong(CACHE_PDF_MAX_BYTES, 64L * 1024 * 1024));
+    }
+
+    public static long getCacheTableMaxRows() {
+
+        return Math.max(0, Long.getLong(CACHE_TABLE_MAX_ROWS, 250000));
+    }
+
+    public static String getCacheDirectory() {
+
+        String directory = System.getProperty(CACHE_DIRECTORY);
+        return directory == null || directory.trim().isEmpty() ? null : directory.trim();
+    }
+
+    public static long getCurrentMonthTtlSeconds() {
+
+        return Math.max(0, Long.getLong(CACHE_CURRENT_MONTH_TTL, 0));
+    }
+
+    public static boolean isFileOutputMode() {
+
+        return "file".equalsIgnoreCase(System.getProperty(OUTPUT_MODE, "memory").trim());
+    }
+
+    public static String getOutputTempDirectory() {
+
+        String directory = System.getProperty(OUTPUT_TEMP_DIRECTORY);
+        return directory == null || directory.trim().isEmpty() ? System.getProperty("java.io.tmpdir")
+                : directory.trim();
+    }
+
+    public static boolean isScratchFileEnabled() {
+
+        return Boolean.getBoolean(RENDER_SCRATCH_FILE);
+    }
+
+    public static int getBatchParallelism() {
+
+        return Math.max(1, Integer.getInteger(BATCH_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static int getBatchQueueCapacity() {
+
+        return Math.max(0, Integer.getInteger(BATCH_QUEUE_CAPACITY, 2 * getBatchParallelism()));
+    }
+
+    public static long getBatchTenantTimeoutSeconds() {
+
+        return Math.max(1, Long.getLong(BATCH_TENANT_TIMEOUT, 300));
+    }
+
+    public static boolean isBatchVirtualThreadsEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(BATCH_VIRTUAL_THREADS, "true"));
+    }
+
+    public static boolean isBatchSingleQueryEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(BATCH_SINGLE_QUERY, "true"));
+    }
+
+    public static boolean isMetricsEnabled() {
+
+        return Boolean.getBoolean(METRICS_ENABLED);
+    }
+
+    public static String getMetricsListener() {
+
+        String listener = System.getProperty(METRICS_LISTENER);
+        return listener == null || listener.trim().isEmpty() ? null : listener.trim();
+    }
+
+    public static int getJobWorkers() {
+
+        return Math.max(1, Integer.getInteger(JOB_WORKERS, 2));
+    }
+
+    public static int getJobQueueCapacity() {
+
+        return Math.max(0, Integer.getInteger(JOB_QUEUE_CAPACITY, 16));
+    }
+
+    public static long getJobRetentionSeconds() {
+
+        return Math.max(1, Long.getLong(JOB_RETENTION, 600));
+    }
+
+    public static String getSnapshotDirectory() {
+
+        String directory = System.getProperty(SNAPSHOT_DIRECTORY);
+        return directory == null || directory.trim().isEmpty() ? null : directory.trim();
+    }
+
+    public static int getReportTopN() {
+
+        return Math.max(0, Integer.getInteger(REPORT_TOP_N, 0));
+    }
+
+    public static boolean isAutoFitEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(RENDER_AUTO_FIT, "true"));
+    }
+
+    public static boolean isCoalescingEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(COALESCE_ENABLED, "true"));
+    }
+
+    public static int getRenderParallelism() {
+
+        return Math.max(1, Integer.getInteger(RENDER_PARALLELISM, 1));
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the rows of a report in a tabular format.
+ */
+interface ReportExporter {
+
+    /**
+     * Streams the rows to the output without buffering the whole file.
+     *
+     * @param rows          rows of the report.
+     * @param columnHeaders the table column headers.
+     * @param out           stream to write to, which is flushed but not closed.
+     * @throws IOException if the output cannot be written.
+     */
+    void export(ReportRowSource rows, String[] columnHeaders, OutputStream out) throws IOException;
+}
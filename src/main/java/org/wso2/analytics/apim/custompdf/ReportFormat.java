@@ -0,0 +1,74 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.Locale;
+
+/**
+ * Output formats of a report.
+ */
+public enum ReportFormat {
+
+    PDF("application/pdf", "pdf", null),
+    CSV("text/csv; charset=UTF-8", "csv", new CsvReportExporter()),
+    XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx", new XlsxReportExporter());
+
+    private final String contentType;
+    private final String extension;
+    private final ReportExporter exporter;
+
+    ReportFormat(String contentType, String extension, ReportExporter exporter) {
+
+        this.contentType = contentType;
+        this.extension = extension;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Parses a format name as given in a request, e.g. {@code csv}.
+     *
+     * @param name format name, case-insensitive, or null for the default PDF.
+     * @return the format.
+     * @throws IllegalArgumentException if the name is not a known format.
+     */
+    public static ReportFormat fromName(String name) {
+
+        if (name == null || name.trim().isEmpty()) {
+            return PDF;
+        }
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public String getContentType() {
+
+        return contentType;
+    }
+
+    public String getExtension() {
+
+        return extension;
+    }
+
+    /**
+     * @return the exporter of a tabular format, null for PDF.
+     */
+    ReportExporter getExporter() {
+
+        return exporter;
+    }
+}
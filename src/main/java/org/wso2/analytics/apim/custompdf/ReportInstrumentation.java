@@ -0,0 +1,155 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Entry point of the report generation metrics.
+ *
+ * Instrumentation is off unless {@link ReportConfig#METRICS_ENABLED} is set; while it is off {@link #start} returns
+ * null and the generator skips all timing. When enabled, every report produces a {@link ReportTrace} which is logged
+ * at debug level, added to the totals of the {@code org.wso2.analytics.apim.custompdf:type=Reports} MBean and handed
+ * to the registered listeners. The report cache and the Siddhi runtime pool are registered as MBeans as well.
+ */
+public final class ReportInstrumentation {
+
+    private static final Log log = LogFactory.getLog(ReportInstrumentation.class);
+    private static final String DOMAIN = "org.wso2.analytics.apim.custompdf";
+    private static final boolean ENABLED = ReportConfig.isMetricsEnabled();
+    private static final List<ReportMetricsListener> listeners = new CopyOnWriteArrayList<>();
+    private static final ReportStats stats = new ReportStats();
+    private static volatile boolean registered;
+
+    private ReportInstrumentation() {
+
+    }
+
+    public static boolean isEnabled() {
+
+        return ENABLED;
+    }
+
+    /**
+     * Registers a listener which is called after every report while instrumentation is enabled.
+     *
+     * @param listener the listener.
+     */
+    public static void addListener(ReportMetricsListener listener) {
+
+        listeners.add(listener);
+    }
+
+    public static void removeListener(ReportMetricsListener listener) {
+
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return totals of all reports traced since startup.
+     */
+    public static ReportStatsMXBean getStats() {
+
+        return stats;
+    }
+
+    /**
+     * Starts tracing a report.
+     *
+     * @param tenantDomain tenant domain of the report.
+     * @param year         year of the report.
+     * @param month        month of the report.
+     * @return the new trace, or null if instrumentation is disabled.
+     */
+    static ReportTrace start(String tenantDomain, int year, int month) {
+
+        if (!ENABLED) {
+            return null;
+        }
+        if (!registered) {
+            register();
+        }
+        return new ReportTrace(tenantDomain, year, month);
+    }
+
+    /**
+     * Ends a trace and publishes it.
+     *
+     * @param trace the trace returned by {@link #start}, may be null.
+     */
+    static void complete(ReportTrace trace) {
+
+        if (trace == null) {
+            return;
+        }
+        trace.finish();
+        stats.record(trace);
+        if (log.isDebugEnabled()) {
+            log.debug(trace.toString());
+        }
+        for (ReportMetricsListener listener : listeners) {
+            try {
+                listener.onReport(trace);
+            } catch (RuntimeException e) {
+                log.warn("Report metrics listener " + listener.getClass().getName() + " failed.", e);
+            }
+        }
+    }
+
+    private static synchronized void register() {
+
+        if (registered) {
+            return;
+        }
+        registered = true;
+        String listenerClass = ReportConfig.getMetricsListener();
+        if (listenerClass != null) {
+            try {
+                addListener((ReportMetricsListener) Class.forName(listenerClass).newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                log.error("Could not create report metrics listener " + listenerClass, e);
+            }
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        registerMBean(server, "Reports", stats);
+        registerMBean(server, "ReportCache", ReportCache.getInstance());
+        registerMBean(server, "SiddhiRuntimePool", SiddhiRuntimePool.getInstance());
+    }
+
+    private static void registerMBean(MBeanServer server, String type, Object mbean) {
+
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+            // a redeployed bundle must replace the beans of its previous class loader.
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        } catch (JMException e) {
+            log.warn("Could not register the " + type + " MBean.", e);
+        }
+    }
+}
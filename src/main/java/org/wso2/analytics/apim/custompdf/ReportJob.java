@@ -0,0 +1,229 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.Future;
+
+/**
+ * A monthly report generated in the background by {@link ReportJobService}.
+ */
+public final class ReportJob {
+
+    private final String id;
+    private final String tenantDomain;
+    private final String year;
+    private final String month;
+    private final ReportFormat format;
+    private final long submittedAt = System.currentTimeMillis();
+    private volatile ReportJobStatus status = ReportJobStatus.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String error;
+    private volatile Future<?> future;
+    private byte[] content;
+    private InputStream contentStream;
+
+    ReportJob(String id, String tenantDomain, String year, String month, ReportFormat format) {
+
+        this.id = id;
+        this.tenantDomain = tenantDomain;
+        this.year = year;
+        this.month = month;
+        this.format = format;
+    }
+
+    public String getId() {
+
+        return id;
+    }
+
+    public String getTenantDomain() {
+
+        return tenantDomain;
+    }
+
+    public String getYear() {
+
+        return year;
+    }
+
+    public String getMonth() {
+
+        return month;
+    }
+
+    public ReportFormat getFormat() {
+
+        return format;
+    }
+
+    public ReportJobStatus getStatus() {
+
+        return status;
+    }
+
+    /**
+     * @return submission time in epoch milliseconds.
+     */
+    public long getSubmittedAt() {
+
+        return submittedAt;
+    }
+
+    /**
+     * @return start time in epoch milliseconds, 0 while queued.
+     */
+    public long getStartedAt() {
+
+        return startedAt;
+    }
+
+    /**
+     * @return end time in epoch milliseconds, 0 while not done.
+     */
+    public long getFinishedAt() {
+
+        return finishedAt;
+    }
+
+    /**
+     * @return message of the failure of a {@link ReportJobStatus#FAILED} job, otherwise null.
+     */
+    public String getError() {
+
+        return error;
+    }
+
+    Future<?> getFuture() {
+
+        return future;
+    }
+
+    void setFuture(Future<?> future) {
+
+        this.future = future;
+    }
+
+    /**
+     * Moves a queued job to running.
+     *
+     * @return false if the job was cancelled meanwhile.
+     */
+    synchronized boolean start() {
+
+        if (status != ReportJobStatus.QUEUED) {
+            return false;
+        }
+        startedAt = System.currentTimeMillis();
+        status = ReportJobStatus.RUNNING;
+        return true;
+    }
+
+    /**
+     * Stores the result of a running job. In memory output mode the report is kept as bytes which can be downloaded any
+     * number of times; otherwise the stream over the temporary file is kept and handed out once.
+     *
+     * @param result       the generated report in memory output mode, otherwise null.
+     * @param resultStream the generated report in file output mode, otherwise null.
+     * @return false if the job was cancelled meanwhile, the caller then owns the result.
+     */
+    synchronized boolean succeed(byte[] result, InputStream resultStream) {
+
+        if (status != ReportJobStatus.RUNNING) {
+            return false;
+        }
+        content = result;
+        contentStream = resultStream;
+        finish(result == null && resultStream == null ? ReportJobStatus.EMPTY : ReportJobStatus.SUCCEEDED);
+        return true;
+    }
+
+    synchronized void fail(Throwable cause) {
+
+        if (!status.isDone()) {
+            error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+            finish(ReportJobStatus.FAILED);
+        }
+    }
+
+    /**
+     * Marks the job cancelled unless it is done already.
+     *
+     * @return true if the job was cancelled.
+     */
+    synchronized boolean cancel() {
+
+        if (status.isDone()) {
+            return false;
+        }
+        finish(ReportJobStatus.CANCELLED);
+        return true;
+    }
+
+    private void finish(ReportJobStatus finalStatus) {
+
+        finishedAt = System.currentTimeMillis();
+        status = finalStatus;
+    }
+
+    /**
+     * Hands out the result of a finished job.
+     *
+     * @return the report, or null if the job found no data.
+     * @throws IllegalStateException if the job has not succeeded or its one-time result was already taken.
+     */
+    synchronized InputStream takeResult() {
+
+        if (status == ReportJobStatus.EMPTY) {
+            return null;
+        }
+        if (status != ReportJobStatus.SUCCEEDED) {
+            throw new IllegalStateException("Report job " + id + " is " + status + ".");
+        }
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        if (contentStream == null) {
+            throw new IllegalStateException("Report of job " + id + " has already been downloaded.");
+        }
+        InputStream result = contentStream;
+        contentStream = null;
+        return result;
+    }
+
+    /**
+     * Drops the result, closing a stream that was never downloaded.
+     *
+     * @return the stream to close, or null.
+     */
+    synchronized InputStream release() {
+
+        InputStream result = contentStream;
+        content = null;
+        contentStream = null;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+
+        return "ReportJob[" + id + " " + tenantDomain + " " + year + "-" + month + " " + format + " " + status + "]";
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.analytics.apim.rest.api.report.exception.PDFReportException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates monthly reports in the background so that a dashboard request does not wait for the aggregation query
+ * and the rendering.
+ *
+ * {@link #submit} returns a job id right away, {@link #getJob} polls its status and {@link #download} fetches the
+ * report, a PDF or one of the other {@link ReportFormat}s, once the job has succeeded. Jobs run on a bounded pool
+ * of {@link ReportConfig#getJobWorkers()} threads with at most {@link ReportConfig#getJobQueueCapacity()} jobs
+ * waiting; submissions beyond that are rejected rather than queued without limit. Finished jobs and their reports
+ * are kept for {@link ReportConfig#getJobRetentionSeconds()}.
+ *
+ * A job runs the same {@link CustomPDFGenerator} as the synchronous path, so it shares the report cache and the
+ * Siddhi runtime pool.
+ */
+public final class ReportJobService {
+
+    private static final Log log = LogFactory.getLog(ReportJobService.class);
+    private static volatile ReportJobService instance;
+
+    private final ThreadPoolExecutor executor;
+    private final long retentionMillis;
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * @param workers         number of reports generated at once.
+     * @param queueCapacity   maximum number of jobs waiting for a worker.
+     * @param retentionMillis time finished jobs are kept.
+     */
+    ReportJobService(int workers, int queueCapacity, long retentionMillis) {
+
+        this.retentionMillis = retentionMillis;
+        // without queue capacity, jobs are rejected whenever all workers are busy.
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity)
+                        : new SynchronousQueue<>(),
+                BatchReportGenerator.namedThreadFactory("custompdf-report-job"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Returns the shared job service, creating it on first use.
+     *
+     * @return the process-wide job service.
+     */
+    public static ReportJobService getInstance() {
+
+        ReportJobService service = instance;
+        if (service == null) {
+            synchronized (ReportJobService.class) {
+                service = instance;
+                if (service == null) {
+                    service = new ReportJobService(ReportConfig.getJobWorkers(), ReportConfig.getJobQueueCapacity(),
+                            TimeUnit.SECONDS.toMillis(ReportConfig.getJobRetentionSeconds()));
+                    instance = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Queues the monthly PDF report of a tenant.
+     *
+     * @param year         year of the report.
+     * @param month        month of the report.
+     * @param tenantDomain API creator tenant domain.
+     * @return the job id.
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    public String submit(String year, String month, String tenantDomain) {
+
+        return submit(year, month, tenantDomain, ReportFormat.PDF);
+    }
+
+    /**
+     * Queues the monthly report of a tenant.
+     *
+     * @param year         year of the report.
+     * @param month        month of the report.
+     * @param tenantDomain API creator tenant domain.
+     * @param format       output format of the report.
+     * @return the job id.
+     * @throws RejectedExecutionException if the queue is full.
+     */
+    public String submit(String year, String month, String tenantDomain, ReportFormat format) {
+
+        purgeExpired();
+        String id = UUID.randomUUID().toString();
+        final ReportJob job = new ReportJob(id, tenantDomain, year, month, format);
+        jobs.put(id, job);
+        try {
+            job.setFuture(executor.submit(() -> run(job)));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(id);
+            throw new RejectedExecutionException("Report job queue is full (" + executor.getQueue().size()
+                    + " waiting), try again later.", e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Submitted " + job);
+        }
+        return id;
+    }
+
+    /**
+     * Returns a job to poll its status.
+     *
+     * @param jobId the job id.
+     * @return the job, or null if unknown or expired.
+     */
+    public ReportJob getJob(String jobId) {
+
+        purgeExpired();
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Returns the report of a job.
+     *
+     * @param jobId the job id.
+     * @return the report in the format of the job, or null if the tenant has no data for the month.
+     * @throws PDFReportException if the job is unknown, failed or not finished yet.
+     */
+    public InputStream download(String jobId) throws PDFReportException {
+
+        ReportJob job = getJob(jobId);
+        if (job == null) {
+            throw new PDFReportException("Unknown or expired report job " + jobId + ".");
+        }
+        if (job.getStatus() == ReportJobStatus.FAILED) {
+            throw new PDFReportException("Report job " + jobId + " failed: " + job.getError());
+        }
+        try {
+            return job.takeResult();
+        } catch (IllegalStateException e) {
+            throw new PDFReportException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Cancels a job that has not finished yet. A running job is interrupted.
+     *
+     * @param jobId the job id.
+     * @return true if the job was cancelled.
+     */
+    public boolean cancel(String jobId) {
+
+        ReportJob job = jobs.get(jobId);
+        if (job == null || !job.cancel()) {
+            return false;
+        }
+        if (job.getFuture() != null) {
+            // removes a queued job from the queue and interrupts a running one.
+            job.getFuture().cancel(true);
+            executor.purge();
+        }
+        return true;
+    }
+
+    /**
+     * Removes a job and discards its result.
+     *
+     * @param jobId the job id.
+     */
+    public void remove(String jobId) {
+
+        cancel(jobId);
+        ReportJob job = jobs.remove(jobId);
+        if (job != null) {
+            closeQuietly(job.release());
+        }
+    }
+
+    /**
+     * Runs a report synchronously on the caller's thread, as the dashboard does through {@link CustomPDFGenerator}.
+     *
+     * @param year         year of the report.
+     * @param month        month of the report.
+     * @param tenantDomain API creator tenant domain.
+     * @return the PDF, or null if the tenant has no data for the month.
+     * @throws IOException        if the aggregation cannot be queried.
+     * @throws PDFReportException if the PDF cannot be rendered.
+     */
+    public static InputStream generate(String year, String month, String tenantDomain)
+            throws IOException, PDFReportException {
+
+        return new CustomPDFGenerator(year, month, tenantDomain).generateMonthlyRequestSummaryPDF();
+    }
+
+    private static InputStream export(String year, String month, String tenantDomain, ReportFormat format)
+            throws IOException, PDFReportException {
+
+        CustomPDFGenerator generator = new CustomPDFGenerator(year, month, tenantDomain);
+        if (!ReportConfig.isFileOutputMode()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            return generator.export(format, out) > 0 ? new ReportBytesInputStream(out.toByteArray()) : null;
+        }
+        Path directory = Paths.get(ReportConfig.getOutputTempDirectory());
+        Files.createDirectories(directory);
+        Path file = Files.createTempFile(directory, "custompdf-", "." + format.getExtension());
+        try {
+            int rows;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                rows = generator.export(format, out);
+            }
+            if (rows > 0) {
+                return new TempFileInputStream(file);
+            }
+            Files.deleteIfExists(file);
+            return null;
+        } catch (IOException | PDFReportException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private void run(ReportJob job) {
+
+        if (!job.start()) {
+            return;
+        }
+        InputStream result = null;
+        try {
+            result = job.getFormat() == ReportFormat.PDF
+                    ? generate(job.getYear(), job.getMonth(), job.getTenantDomain())
+                    : export(job.getYear(), job.getMonth(), job.getTenantDomain(), job.getFormat());
+            // a report on the heap is kept as its bytes, taken over rather than copied.
+            byte[] content = null;
+            InputStream stream = null;
+            if (result instanceof ReportBytesInputStream) {
+                content = ((ReportBytesInputStream) result).getBytes();
+            } else {
+                stream = result;
+            }
+            if (job.succeed(content, stream)) {
+                result = null;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Finished " + job);
+            }
+        } catch (IOException | PDFReportException | RuntimeException e) {
+            log.error("Error while generating " + job, e);
+            job.fail(e);
+        } finally {
+            closeQuietly(result);
+        }
+    }
+
+    private void purgeExpired() {
+
+        long expiredBefore = System.currentTimeMillis() - retentionMillis;
+        for (Iterator<ReportJob> iterator = jobs.values().iterator(); iterator.hasNext();) {
+            ReportJob job = iterator.next();
+            if (job.getStatus().isDone() && job.getFinishedAt() < expiredBefore) {
+                iterator.remove();
+                closeQuietly(job.release());
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn("Error while closing report stream.", e);
+            }
+        }
+    }
+
+    /**
+     * @return number of jobs waiting for a worker.
+     */
+    public int getQueuedJobCount() {
+
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of jobs being generated.
+     */
+    public int getRunningJobCount() {
+
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Stops accepting jobs and interrupts the running ones.
+     */
+    public void shutdown() {
+
+        executor.shutdownNow();
+    }
+}
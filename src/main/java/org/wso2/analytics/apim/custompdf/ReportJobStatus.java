@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * State of an asynchronous report job.
+ */
+public enum ReportJobStatus {
+
+    /**
+     * Waiting for a free worker.
+     */
+    QUEUED,
+
+    /**
+     * Being generated.
+     */
+    RUNNING,
+
+    /**
+     * Finished, the PDF can be downloaded.
+     */
+    SUCCEEDED,
+
+    /**
+     * Finished without data for the month, there is no PDF.
+     */
+    EMPTY,
+
+    /**
+     * Generation failed, see {@link ReportJob#getError()}.
+     */
+    FAILED,
+
+    /**
+     * Cancelled before it finished.
+     */
+    CANCELLED;
+
+    /**
+     * @return true if the job will not change any more.
+     */
+    public boolean isDone() {
+
+        return this != QUEUED && this != RUNNING;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * Receives the trace of every generated report while instrumentation is enabled. Implementations can forward the
+ * figures to a metrics system; they are called on the thread that generated the report and must be thread-safe.
+ */
+public interface ReportMetricsListener {
+
+    /**
+     * Called when a report has been generated or served from the cache.
+     *
+     * @param trace timings and sizes of the report.
+     */
+    void onReport(ReportTrace trace);
+}
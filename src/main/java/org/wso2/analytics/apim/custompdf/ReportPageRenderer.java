@@ -0,0 +1,413 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.CELL_MARGIN;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.CELL_PADDING;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.FONT_SIZE;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.RECORD_COUNT_PER_PAGE;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.ROW_HEIGHT;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.ROW_TEXT_OFFSET;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.TABLE_TOP_Y;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.TABLE_WIDTH;
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.TEXT_FONT;
+
+/**
+ * Single-pass renderer of the monthly usage report.
+ *
+ * Each page is created only when it is reached and its grid and text are written into one content stream, reading
+ * {@link CustomPDFGenerator#RECORD_COUNT_PER_PAGE} rows at a time from the row source. The grid of a page is one
+ * stroked path and its text one text object, see {@link PageTextWriter}. Column widths are fitted to the rows by
+ * {@link ColumnFitter} unless auto-fit is disabled, in which case the layout is the same as the one produced by
+ * {@link CustomPDFGenerator#drawTableGrid} and {@link CustomPDFGenerator#writeRowsContent}. Either way, text too
+ * wide for its column is cut short with an ellipsis.
+ *
+ * With a render pool, see {@link ReportConfig#getRenderParallelism()}, the content streams of the pages are encoded
+ * concurrently, a few pages per task, each task into pages of a private staging document. The encoded streams and
+ * the resources they use are then attached to the pages of the report in page order on the calling thread, so the
+ * document itself is only touched by one thread and the output is the same as when rendering sequentially. The row
+ * source must then allow concurrent reads.
+ */
+final class ReportPageRenderer {
+
+    private static final int ROWS_PER_PAGE = (int) RECORD_COUNT_PER_PAGE;
+    // pages encoded by one task, enough to make up for the cost of scheduling it and of its staging document.
+    private static final int PAGES_PER_TASK = 8;
+    private static volatile ForkJoinPool sharedPool;
+
+    private final String[] columnHeaders;
+    private final float[] columnWidths;
+    private float[] widths;
+    private FontMetrics headerMetrics;
+    private FontMetrics rowMetrics;
+    private final String title;
+    private final String period;
+    private final ForkJoinPool pool;
+
+    /**
+     * Renderer using the shared render pool if {@link ReportConfig#getRenderParallelism()} is more than 1.
+     *
+     * @param columnHeaders the table column headers.
+     * @param columnWidths  widths of each column, used when {@link ReportConfig#isAutoFitEnabled()} is off.
+     * @param title         the report title printed on the first page.
+     * @param period        the time duration printed below the title.
+     */
+    ReportPageRenderer(String[] columnHeaders, float[] columnWidths, String title, String period) {
+
+        this(columnHeaders, columnWidths, title, period,
+                ReportConfig.getRenderParallelism() > 1 ? getSharedPool() : null);
+    }
+
+    /**
+     * @param columnHeaders the table column headers.
+     * @param columnWidths  widths of each column, used when {@link ReportConfig#isAutoFitEnabled()} is off.
+     * @param title         the report title printed on the first page.
+     * @param period        the time duration printed below the title.
+     * @param pool          pool on which pages are encoded, or null to render them on the calling thread.
+     */
+    ReportPageRenderer(String[] columnHeaders, float[] columnWidths, String title, String period,
+            ForkJoinPool pool) {
+
+        this.columnHeaders = columnHeaders;
+        this.columnWidths = columnWidths;
+        this.title = title;
+        this.period = period;
+        this.pool = pool;
+    }
+
+    private static ForkJoinPool getSharedPool() {
+
+        ForkJoinPool renderPool = sharedPool;
+        if (renderPool == null) {
+            synchronized (ReportPageRenderer.class) {
+                renderPool = sharedPool;
+                if (renderPool == null) {
+                    renderPool = new ForkJoinPool(ReportConfig.getRenderParallelism());
+                    sharedPool = renderPool;
+                }
+            }
+        }
+        return renderPool;
+    }
+
+    /**
+     * Creates an empty document. When {@link ReportConfig#isScratchFileEnabled()} is set, stream data of finished
+     * pages is kept in a scratch file in the temporary directory instead of on the heap. The scratch file is deleted
+     * when the document is closed.
+     *
+     * @return a new document.
+     * @throws IOException if the scratch file cannot be created.
+     */
+    static PDDocument createDocument() throws IOException {
+
+        if (!ReportConfig.isScratchFileEnabled()) {
+            return new PDDocument();
+        }
+        File directory = new File(ReportConfig.getOutputTempDirectory());
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create temporary directory " + directory);
+        }
+        COSDocument cosDocument = new COSDocument(directory, false);
+        // same skeleton as the one set up by new PDDocument(), which has no constructor taking a scratch file.
+        COSDictionary trailer = new COSDictionary();
+        cosDocument.setTrailer(trailer);
+        COSDictionary root = new COSDictionary();
+        trailer.setItem(COSName.ROOT, root);
+        root.setItem(COSName.TYPE, COSName.CATALOG);
+        root.setItem(COSName.VERSION, COSName.getPDFName("1.4"));
+        COSDictionary pages = new COSDictionary();
+        root.setItem(COSName.PAGES, pages);
+        pages.setItem(COSName.TYPE, COSName.PAGES);
+        pages.setItem(COSName.KIDS, new COSArray());
+        pages.setItem(COSName.COUNT, COSInteger.ZERO);
+        return new PDDocument(cosDocument);
+    }
+
+    /**
+     * Adds the pages of the report to the document.
+     *
+     * @param document          the document.
+     * @param rows              rows of the report, at least one.
+     * @param totalRequestCount total aggregated count printed on the header.
+     * @throws IOException
+     */
+    void render(PDDocument document, ReportRowSource rows, long totalRequestCount) throws IOException {
+
+        render(document, rows, totalRequestCount, null);
+    }
+
+    /**
+     * Adds the pages of the report to the document, recording grid and text timings in the trace.
+     *
+     * @param document          the document.
+     * @param rows              rows of the report, at least one.
+     * @param totalRequestCount total aggregated count printed on the header.
+     * @param trace             trace of the report, or null if not traced.
+     * @throws IOException
+     */
+    void render(PDDocument document, ReportRowSource rows, long totalRequestCount, ReportTrace trace)
+            throws IOException {
+
+        headerMetrics = FontMetrics.of(PDType1Font.HELVETICA_BOLD);
+        rowMetrics = FontMetrics.of(TEXT_FONT);
+        widths = ReportConfig.isAutoFitEnabled() ? ColumnFitter.fit(columnHeaders, PDType1Font.HELVETICA_BOLD, rows,
+                TEXT_FONT, FONT_SIZE, TABLE_WIDTH) : columnWidths;
+        int numberOfRows = rows.size();
+        int numberOfPages = (numberOfRows + ROWS_PER_PAGE - 1) / ROWS_PER_PAGE;
+        if (pool != null && numberOfPages > 1) {
+            renderInParallel(document, rows, totalRequestCount, numberOfPages, trace);
+            if (trace != null) {
+                trace.setPages(numberOfPages);
+            }
+            return;
+        }
+        String[] cells = new String[ReportRowSource.COLUMN_COUNT];
+        int pageNumber = 1;
+        for (int from = 0; from < numberOfRows; from += ROWS_PER_PAGE) {
+            if (Thread.currentThread().isInterrupted()) {
+                // a cancelled report, e.g. a timed out batch report, stops rather than render the remaining pages.
+                throw new InterruptedIOException("Interrupted while rendering report pages.");
+            }
+            int to = Math.min(numberOfRows, from + ROWS_PER_PAGE);
+            PDPage page = new PDPage(PDPage.PAGE_SIZE_A4);
+            page.setRotation(90);
+            document.addPage(page);
+            PDPageContentStream contentStream = new PDPageContentStream(document, page, true, false);
+            try {
+                writePage(contentStream, page, pageNumber, rows, from, to, totalRequestCount, cells, trace);
+            } finally {
+                contentStream.close();
+            }
+            pageNumber++;
+        }
+        if (trace != null) {
+            trace.setPages(pageNumber - 1);
+        }
+    }
+
+    private void renderInParallel(PDDocument document, final ReportRowSource rows, final long totalRequestCount,
+            int numberOfPages, ReportTrace trace) throws IOException {
+
+        final boolean traced = trace != null;
+        // tasks run ahead of the attached pages by a bounded number, so encoded pages do not pile up on the heap.
+        int maxPending = 2 * pool.getParallelism();
+        Deque<ForkJoinTask<StagedPage[]>> pending = new ArrayDeque<>();
+        try {
+            for (int first = 1; first <= numberOfPages; first += PAGES_PER_TASK) {
+                final int firstPage = first;
+                final int lastPage = Math.min(numberOfPages, first + PAGES_PER_TASK - 1);
+                pending.add(pool.submit(() -> stagePages(rows, firstPage, lastPage, totalRequestCount, traced)));
+                if (pending.size() >= maxPending) {
+                    attachPages(document, pending.poll(), trace);
+                }
+            }
+            while (!pending.isEmpty()) {
+                attachPages(document, pending.poll(), trace);
+            }
+        } finally {
+            for (ForkJoinTask<StagedPage[]> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Encodes the content of a range of pages into pages of a staging document, on a thread of the pool.
+     */
+    private StagedPage[] stagePages(ReportRowSource rows, int firstPage, int lastPage, long totalRequestCount,
+            boolean traced) throws IOException {
+
+        String[] cells = new String[ReportRowSource.COLUMN_COUNT];
+        StagedPage[] stagedPages = new StagedPage[lastPage - firstPage + 1];
+        PDDocument staging = new PDDocument();
+        try {
+            for (int pageNumber = firstPage; pageNumber <= lastPage; pageNumber++) {
+                int from = (pageNumber - 1) * ROWS_PER_PAGE;
+                int to = Math.min(rows.size(), from + ROWS_PER_PAGE);
+                PDPage page = new PDPage(PDPage.PAGE_SIZE_A4);
+                page.setRotation(90);
+                // timings go to a trace of the page, as the one of the report is not thread-safe.
+                ReportTrace pageTrace = traced ? new ReportTrace(null, 0, 0) : null;
+                PDPageContentStream contentStream = new PDPageContentStream(staging, page, true, false);
+                try {
+                    writePage(contentStream, page, pageNumber, rows, from, to, totalRequestCount, cells, pageTrace);
+                } finally {
+                    contentStream.close();
+                }
+                stagedPages[pageNumber - firstPage] = new StagedPage(page.getContents().getByteArray(),
+                        page.findResources(), pageTrace);
+            }
+        } finally {
+            staging.close();
+        }
+        return stagedPages;
+    }
+
+    /**
+     * Adds the pages encoded by a task to the document, waiting for the task if needed.
+     */
+    private static void attachPages(PDDocument document, ForkJoinTask<StagedPage[]> task, ReportTrace trace)
+            throws IOException {
+
+        StagedPage[] stagedPages;
+        try {
+            stagedPages = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering report pages.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Error while rendering report pages.", cause);
+        }
+        for (StagedPage stagedPage : stagedPages) {
+            // built in the same order as a page rendered in place, so the page dictionaries are the same.
+            PDPage page = new PDPage(PDPage.PAGE_SIZE_A4);
+            page.setRotation(90);
+            document.addPage(page);
+            page.setContents(new PDStream(document, new ByteArrayInputStream(stagedPage.content)));
+            page.setResources(stagedPage.resources);
+            if (trace != null) {
+                trace.addPhaseNanos(ReportPhase.GRID, stagedPage.trace.getPhaseNanos(ReportPhase.GRID));
+                trace.addPhaseNanos(ReportPhase.TEXT, stagedPage.trace.getPhaseNanos(ReportPhase.TEXT));
+            }
+        }
+    }
+
+    private void writePage(PDPageContentStream contentStream, PDPage page, int pageNumber, ReportRowSource rows,
+            int from, int to, long totalRequestCount, String[] cells, ReportTrace trace) throws IOException {
+
+        long gridStart = trace != null ? System.nanoTime() : 0;
+        boolean firstPage = pageNumber == 1;
+        contentStream.concatenate2CTM(0, 1, -1, 0, page.getMediaBox().getWidth(), 0);
+
+        // the first page has an extra row for the column headers.
+        int gridRows = to - from + (firstPage ? 1 : 0);
+        drawGrid(contentStream, gridRows);
+
+        long textStart = trace != null ? System.nanoTime() : 0;
+        PageTextWriter text = new PageTextWriter(contentStream);
+        text.setFont(PDType1Font.HELVETICA_BOLD, FONT_SIZE);
+        text.write(page.getMediaBox().getHeight() / 2, PDPage.PAGE_SIZE_A4.getLowerLeftY() + ROW_HEIGHT,
+                Integer.toString(pageNumber));
+        float positionY = TABLE_TOP_Y - ROW_TEXT_OFFSET;
+        if (firstPage) {
+            text.setFont(PDType1Font.HELVETICA_BOLD, 16);
+            text.write(CELL_MARGIN, 550, title);
+            text.setFont(PDType1Font.HELVETICA_BOLD, 14);
+            text.write(CELL_MARGIN, 530, period);
+            text.setFont(PDType1Font.HELVETICA_BOLD, FONT_SIZE);
+            text.write(CELL_MARGIN, 510, CustomPDFGenerator.getGeneratedTimeText());
+            text.write(CELL_MARGIN, 490, CustomPDFGenerator.getTotalRequestCountText(totalRequestCount));
+            writeCells(text, positionY, columnHeaders, headerMetrics);
+            positionY -= ROW_HEIGHT;
+        }
+        text.setFont(TEXT_FONT, FONT_SIZE);
+        for (int i = from; i < to; i++) {
+            rows.getRow(i, cells);
+            writeCells(text, positionY, cells, rowMetrics);
+            positionY -= ROW_HEIGHT;
+        }
+        text.end();
+        if (trace != null) {
+            long end = System.nanoTime();
+            trace.addPhaseNanos(ReportPhase.GRID, textStart - gridStart);
+            trace.addPhaseNanos(ReportPhase.TEXT, end - textStart);
+        }
+    }
+
+    /**
+     * Draws the grid as a single path which is stroked once.
+     */
+    private void drawGrid(PDPageContentStream contentStream, int gridRows) throws IOException {
+
+        float nextY = TABLE_TOP_Y;
+        for (int i = 0; i <= gridRows; i++) {
+            contentStream.addLine(CELL_MARGIN, nextY, CELL_MARGIN + TABLE_WIDTH, nextY);
+            nextY -= ROW_HEIGHT;
+        }
+        float tableBottomY = TABLE_TOP_Y - ROW_HEIGHT * gridRows;
+        float nextX = CELL_MARGIN;
+        for (float columnWidth : widths) {
+            contentStream.addLine(nextX, TABLE_TOP_Y, nextX, tableBottomY);
+            nextX += columnWidth;
+        }
+        contentStream.addLine(CELL_MARGIN + TABLE_WIDTH, TABLE_TOP_Y, CELL_MARGIN + TABLE_WIDTH, tableBottomY);
+        contentStream.stroke();
+    }
+
+    /**
+     * Writes the cells of a row, cutting text that would run into the next column short with an ellipsis.
+     */
+    private void writeCells(PageTextWriter text, float positionY, String[] cells, FontMetrics metrics)
+            throws IOException {
+
+        float positionX = CELL_MARGIN + CELL_PADDING;
+        for (int i = 0; i < widths.length; i++) {
+            text.write(positionX, positionY, metrics.truncate(cells[i], FONT_SIZE, widths[i] - 2 * CELL_PADDING));
+            positionX += widths[i];
+        }
+    }
+
+    /**
+     * Content stream and resources of a page encoded by a render task.
+     */
+    private static final class StagedPage {
+
+        private final byte[] content;
+        private final PDResources resources;
+        private final ReportTrace trace;
+
+        private StagedPage(byte[] content, PDResources resources, ReportTrace trace) {
+
+            this.content = content;
+            this.resources = resources;
+            this.trace = trace;
+        }
+    }
+}
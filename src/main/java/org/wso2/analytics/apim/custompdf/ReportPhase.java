@@ -0,0 +1,60 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * Phases of generating a report, timed by {@link ReportTrace}.
+ */
+public enum ReportPhase {
+
+    /**
+     * Creating and starting Siddhi runtimes for the aggregation query.
+     */
+    RUNTIME_STARTUP,
+
+    /**
+     * Binding the tenant and period to the aggregation query and compiling it with the Siddhi query compiler. The
+     * runtime builds the execution plan of a query it has not run before while running it, within {@link #QUERY}.
+     */
+    PLANNING,
+
+    /**
+     * Running the compiled aggregation query, excluding runtime startup.
+     */
+    QUERY,
+
+    /**
+     * Converting query events into report rows.
+     */
+    CONVERSION,
+
+    /**
+     * Drawing the table grid.
+     */
+    GRID,
+
+    /**
+     * Writing headers and cell text.
+     */
+    TEXT,
+
+    /**
+     * Serializing the document.
+     */
+    SAVE
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * On-demand queries of the reports over the {@code ApiUserPerAppAgg} aggregation. Each query shape is compiled once
+ * and only the tenant domain and the period are bound per report.
+ */
+final class ReportQueries {
+
+    private static final String USAGE_COLUMNS = "apiName, apiVersion, applicationName, applicationOwner";
+
+    private static final OnDemandQueryTemplate TENANT_USAGE = OnDemandQueryTemplate.compile(
+            "from ApiUserPerAppAgg on apiCreatorTenantDomain==${tenant} within ${period} per \"months\" select "
+                    + USAGE_COLUMNS + ", sum(totalRequestCount) as RequestCount group by " + USAGE_COLUMNS);
+
+    private static final OnDemandQueryTemplate SORTED_TENANT_USAGE = OnDemandQueryTemplate.compile(
+            "from ApiUserPerAppAgg on apiCreatorTenantDomain==${tenant} within ${period} per \"months\" select "
+                    + USAGE_COLUMNS + ", sum(totalRequestCount) as RequestCount group by " + USAGE_COLUMNS
+                    + " order by RequestCount desc");
+
+    private static final OnDemandQueryTemplate ALL_TENANTS_USAGE = OnDemandQueryTemplate.compile(
+            "from ApiUserPerAppAgg within ${period} per \"months\" select apiCreatorTenantDomain, " + USAGE_COLUMNS
+                    + ", sum(totalRequestCount) as RequestCount group by apiCreatorTenantDomain, " + USAGE_COLUMNS
+                    + " order by RequestCount desc");
+
+    private static final OnDemandQueryTemplate TENANTS = OnDemandQueryTemplate.compile(
+            "from ApiUserPerAppAgg within ${period} per \"months\" select apiCreatorTenantDomain "
+                    + "group by apiCreatorTenantDomain");
+
+    private ReportQueries() {
+
+    }
+
+    /**
+     * Returns the query of a tenant's usage per API and application in a month.
+     *
+     * @param year         year of the report.
+     * @param month        month of the report.
+     * @param tenantDomain API creator tenant domain.
+     * @param sorted       whether rows are ordered by descending request count.
+     * @return the query text.
+     */
+    static String tenantUsage(String year, String month, String tenantDomain, boolean sorted) {
+
+        return (sorted ? SORTED_TENANT_USAGE : TENANT_USAGE).bind(tenantDomain, period(year, month));
+    }
+
+    /**
+     * Returns the query of the usage of all tenants in a month, with the tenant domain as first attribute.
+     *
+     * @param year  year of the reports.
+     * @param month month of the reports.
+     * @return the query text.
+     */
+    static String allTenantsUsage(String year, String month) {
+
+        return ALL_TENANTS_USAGE.bind(period(year, month));
+    }
+
+    /**
+     * Returns the query of the tenants with usage in a month.
+     *
+     * @param year  year of the reports.
+     * @param month month of the reports.
+     * @return the query text.
+     */
+    static String tenants(String year, String month) {
+
+        return TENANTS.bind(period(year, month));
+    }
+
+    private static String period(String year, String month) {
+
+        return requireNumber("year", year) + "-" + requireNumber("month", month) + "-** **:**:**";
+    }
+
+    private static String requireNumber(String name, String value) {
+
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Report " + name + " is missing.");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                throw new IllegalArgumentException("Report " + name + " is not a number: " + value);
+            }
+        }
+        return value;
+    }
+}
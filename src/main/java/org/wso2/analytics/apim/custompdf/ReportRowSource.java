@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+/**
+ * Random-access source of the rows of a report, read one row at a time so that renderers and exporters do not need
+ * the whole report as {@link org.wso2.analytics.apim.rest.api.report.reportgen.model.RowEntry} objects.
+ */
+public interface ReportRowSource {
+
+    /**
+     * Number of cells in each row: record number, API name, API version, application name, application owner and
+     * request count.
+     */
+    int COLUMN_COUNT = 6;
+
+    /**
+     * @return number of rows.
+     */
+    int size();
+
+    /**
+     * Writes the cells of a row, as they should be printed, into the given array.
+     *
+     * @param index zero based row index.
+     * @param cells array of at least {@link #COLUMN_COUNT} elements to receive the cells.
+     */
+    void getRow(int index, String[] cells);
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Totals of all report traces, exposed through JMX.
+ */
+final class ReportStats implements ReportStatsMXBean {
+
+    private final AtomicLong reportCount = new AtomicLong();
+    private final AtomicLong pdfCacheHitCount = new AtomicLong();
+    private final AtomicLong rowCacheHitCount = new AtomicLong();
+    private final AtomicLong rowCount = new AtomicLong();
+    private final AtomicLong pageCount = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(ReportPhase.values().length);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxTotalNanos = new AtomicLong();
+    private volatile String lastReport = "";
+
+    void record(ReportTrace trace) {
+
+        reportCount.incrementAndGet();
+        if (trace.isPdfCacheHit()) {
+            pdfCacheHitCount.incrementAndGet();
+        }
+        if (trace.isRowCacheHit()) {
+            rowCacheHitCount.incrementAndGet();
+        }
+        rowCount.addAndGet(trace.getRows());
+        pageCount.addAndGet(trace.getPages());
+        byteCount.addAndGet(trace.getBytes());
+        for (ReportPhase phase : ReportPhase.values()) {
+            phaseNanos.addAndGet(phase.ordinal(), trace.getPhaseNanos(phase));
+        }
+        totalNanos.addAndGet(trace.getTotalNanos());
+        long max;
+        do {
+            max = maxTotalNanos.get();
+        } while (trace.getTotalNanos() > max && !maxTotalNanos.compareAndSet(max, trace.getTotalNanos()));
+        lastReport = trace.toString();
+    }
+
+    private long phaseMillis(ReportPhase phase) {
+
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos.get(phase.ordinal()));
+    }
+
+    @Override
+    public long getReportCount() {
+
+        return reportCount.get();
+    }
+
+    @Override
+    public long getPdfCacheHitCount() {
+
+        return pdfCacheHitCount.get();
+    }
+
+    @Override
+    public long getRowCacheHitCount() {
+
+        return rowCacheHitCount.get();
+    }
+
+    @Override
+    public long getRowCount() {
+
+        return rowCount.get();
+    }
+
+    @Override
+    public long getPageCount() {
+
+        return pageCount.get();
+    }
+
+    @Override
+    public long getByteCount() {
+
+        return byteCount.get();
+    }
+
+    @Override
+    public long getRuntimeStartupMillis() {
+
+        return phaseMillis(ReportPhase.RUNTIME_STARTUP);
+    }
+
+    @Override
+    public long getPlanningMillis() {
+
+        return phaseMillis(ReportPhase.PLANNING);
+    }
+
+    @Override
+    public long getQueryMillis() {
+
+        return phaseMillis(ReportPhase.QUERY);
+    }
+
+    @Override
+    public long getConversionMillis() {
+
+        return phaseMillis(ReportPhase.CONVERSION);
+    }
+
+    @Override
+    public long getGridMillis() {
+
+        return phaseMillis(ReportPhase.GRID);
+    }
+
+    @Override
+    public long getTextMillis() {
+
+        return phaseMillis(ReportPhase.TEXT);
+    }
+
+    @Override
+    public long getSaveMillis() {
+
+        return phaseMillis(ReportPhase.SAVE);
+    }
+
+    @Override
+    public long getTotalMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+    }
+
+    @Override
+    public long getMaxTotalMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(maxTotalNanos.get());
+    }
+
+    @Override
+    public String getLastReport() {
+
+        return lastReport;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and sizes of the generation of one report. Traces exist only while instrumentation is enabled, see
+ * {@link ReportInstrumentation}.
+ */
+public final class ReportTrace {
+
+    private static final ThreadLocal<ReportTrace> CURRENT = new ThreadLocal<>();
+
+    private final String tenantDomain;
+    private final int year;
+    private final int month;
+    private final long startNanos = System.nanoTime();
+    private final long[] phaseNanos = new long[ReportPhase.values().length];
+    private long totalNanos;
+    private int rows;
+    private int pages;
+    private long bytes;
+    private boolean pdfCacheHit;
+    private boolean rowCacheHit;
+
+    ReportTrace(String tenantDomain, int year, int month) {
+
+        this.tenantDomain = tenantDomain;
+        this.year = year;
+        this.month = month;
+    }
+
+    /**
+     * Returns the trace attached to the current thread, used by code that cannot be handed the trace directly, such
+     * as the query executor.
+     *
+     * @return the trace, or null.
+     */
+    static ReportTrace current() {
+
+        return CURRENT.get();
+    }
+
+    void attach() {
+
+        CURRENT.set(this);
+    }
+
+    void detach() {
+
+        CURRENT.remove();
+    }
+
+    void addPhaseNanos(ReportPhase phase, long nanos) {
+
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    void setRows(int rows) {
+
+        this.rows = rows;
+    }
+
+    void setPages(int pages) {
+
+        this.pages = pages;
+    }
+
+    void setBytes(long bytes) {
+
+        this.bytes = bytes;
+    }
+
+    void setPdfCacheHit(boolean pdfCacheHit) {
+
+        this.pdfCacheHit = pdfCacheHit;
+    }
+
+    void setRowCacheHit(boolean rowCacheHit) {
+
+        this.rowCacheHit = rowCacheHit;
+    }
+
+    void finish() {
+
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+    public String getTenantDomain() {
+
+        return tenantDomain;
+    }
+
+    public int getYear() {
+
+        return year;
+    }
+
+    public int getMonth() {
+
+        return month;
+    }
+
+    public long getPhaseNanos(ReportPhase phase) {
+
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return time from the start of the report to the end of its generation, including phases not timed
+     *         separately.
+     */
+    public long getTotalNanos() {
+
+        return totalNanos;
+    }
+
+    public int getRows() {
+
+        return rows;
+    }
+
+    public int getPages() {
+
+        return pages;
+    }
+
+    /**
+     * @return size of the generated PDF, 0 if there was nothing to render.
+     */
+    public long getBytes() {
+
+        return bytes;
+    }
+
+    public boolean isPdfCacheHit() {
+
+        return pdfCacheHit;
+    }
+
+    public boolean isRowCacheHit() {
+
+        return rowCacheHit;
+    }
+
+    /**
+     * @return phase durations in milliseconds.
+     */
+    public Map<ReportPhase, Double> getPhaseMillis() {
+
+        Map<ReportPhase, Double> millis = new EnumMap<>(ReportPhase.class);
+        for (ReportPhase phase : ReportPhase.values()) {
+            millis.put(phase, toMillis(phaseNanos[phase.ordinal()]));
+        }
+        return millis;
+    }
+
+    private static double toMillis(long nanos) {
+
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder builder = new StringBuilder("report tenant=").append(tenantDomain).append(" period=")
+                .append(year).append('-').append(month).append(" cache=")
+                .append(pdfCacheHit ? "pdf" : rowCacheHit ? "rows" : "miss").append(" rows=").append(rows)
+                .append(" pages=").append(pages).append(" bytes=").append(bytes);
+        for (ReportPhase phase : ReportPhase.values()) {
+            builder.append(' ').append(phase.name().toLowerCase(Locale.ROOT)).append("Ms=")
+                    .append(String.format(Locale.ROOT, "%.2f", toMillis(phaseNanos[phase.ordinal()])));
+        }
+        return builder.append(String.format(Locale.ROOT, " totalMs=%.2f", toMillis(totalNanos))).toString();
+    }
+}
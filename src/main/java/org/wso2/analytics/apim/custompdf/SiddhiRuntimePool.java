@@ -0,0 +1,304 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import io.siddhi.core.SiddhiAppRuntime;
+import io.siddhi.core.SiddhiManager;
+import io.siddhi.core.event.Event;
+import io.siddhi.query.api.execution.query.OnDemandQuery;
+import io.siddhi.query.compiler.SiddhiCompiler;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.analytics.apim.rest.api.report.reportgen.DefaultReportGeneratorImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool of started Siddhi runtimes used to run the on-demand aggregation queries of the reports.
+ *
+ * Creating and starting a runtime for {@code APIMTopAppUsersReport.siddhi} costs far more than the query itself,
+ * so runtimes are created lazily, reused across reports and only shut down when the JVM exits. At most
+ * {@link ReportConfig#getSiddhiPoolSize()} runtimes exist at a time; further concurrent queries wait for one to be
+ * released.
+ */
+public final class SiddhiRuntimePool implements AggregationQueryExecutor, SiddhiRuntimePoolMXBean {
+
+    private static final Log log = LogFactory.getLog(SiddhiRuntimePool.class);
+    private static final String REQUEST_SUMMARY_MONTHLY_APP_NAME = "/APIMTopAppUsersReport.siddhi";
+    private static volatile SiddhiRuntimePool instance;
+    private static volatile AggregationQueryExecutor queryExecutor;
+
+    private final ConcurrentLinkedDeque<PooledRuntime> idleRuntimes = new ConcurrentLinkedDeque<>();
+    private final Semaphore permits;
+    private final int maxSize;
+    private final long timeoutSeconds;
+    private volatile String siddhiApp;
+    private volatile boolean shutdown;
+
+    private final AtomicLong runtimesCreated = new AtomicLong();
+    private final AtomicLong totalSetupNanos = new AtomicLong();
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong reusedQueryCount = new AtomicLong();
+
+    private SiddhiRuntimePool(int maxSize, long timeoutSeconds) {
+
+        this.maxSize = maxSize;
+        this.timeoutSeconds = timeoutSeconds;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Returns the shared pool, creating it on first use.
+     *
+     * @return the process-wide runtime pool.
+     */
+    public static SiddhiRuntimePool getInstance() {
+
+        SiddhiRuntimePool pool = instance;
+        if (pool == null) {
+            synchronized (SiddhiRuntimePool.class) {
+                pool = instance;
+                if (pool == null) {
+                    pool = new SiddhiRuntimePool(ReportConfig.getSiddhiPoolSize(),
+                            ReportConfig.getSiddhiPoolTimeoutSeconds());
+                    final SiddhiRuntimePool hookTarget = pool;
+                    Runtime.getRuntime().addShutdownHook(new Thread(hookTarget::shutdown,
+                            "custompdf-siddhi-pool-shutdown"));
+                    instance = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the executor that report queries should use: the installed one if any, otherwise the shared pool.
+     *
+     * @return the query executor.
+     */
+    public static AggregationQueryExecutor getQueryExecutor() {
+
+        AggregationQueryExecutor executor = queryExecutor;
+        return executor != null ? executor : getInstance();
+    }
+
+    /**
+     * Replaces the executor of report queries.
+     *
+     * @param executor the executor to use, or null to use the shared pool again.
+     */
+    public static void setQueryExecutor(AggregationQueryExecutor executor) {
+
+        queryExecutor = executor;
+    }
+
+    /**
+     * Runs an on-demand query on a pooled runtime. The query is compiled before a runtime is borrowed, and the time
+     * it takes is recorded as {@link ReportPhase#PLANNING} on the trace attached to the thread.
+     *
+     * @param onDemandQuery the Siddhi on-demand query.
+     * @return the resulting events, or null if nothing matched.
+     * @throws IOException if the Siddhi app cannot be read or no runtime became free in time.
+     */
+    @Override
+    public Event[] query(String onDemandQuery) throws IOException {
+
+        long planningStart = System.nanoTime();
+        OnDemandQuery compiledQuery = SiddhiCompiler.parseOnDemandQuery(onDemandQuery);
+        ReportTrace trace = ReportTrace.current();
+        if (trace != null) {
+            trace.addPhaseNanos(ReportPhase.PLANNING, System.nanoTime() - planningStart);
+        }
+        PooledRuntime runtime = borrow();
+        boolean healthy = false;
+        try {
+            Event[] events = runtime.siddhiAppRuntime.query(compiledQuery);
+            healthy = true;
+            return events;
+        } finally {
+            release(runtime, healthy);
+        }
+    }
+
+    private PooledRuntime borrow() throws IOException {
+
+        if (shutdown) {
+            throw new IOException("Siddhi runtime pool has been shut down.");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutSeconds, TimeUnit.SECONDS)) {
+                throw new IOException("Timed out after " + timeoutSeconds + "s waiting for a Siddhi runtime.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a Siddhi runtime.", e);
+        }
+        queryCount.incrementAndGet();
+        PooledRuntime runtime = idleRuntimes.pollFirst();
+        if (runtime != null) {
+            reusedQueryCount.incrementAndGet();
+            return runtime;
+        }
+        try {
+            return createRuntime();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(PooledRuntime runtime, boolean healthy) {
+
+        if (healthy && !shutdown) {
+            idleRuntimes.offerFirst(runtime);
+        } else {
+            // a runtime that failed a query may be left in a bad state, so it is replaced on next borrow.
+            runtime.shutdown();
+        }
+        permits.release();
+    }
+
+    private PooledRuntime createRuntime() throws IOException {
+
+        long start = System.nanoTime();
+        SiddhiManager siddhiManager = new SiddhiManager();
+        SiddhiAppRuntime siddhiAppRuntime = siddhiManager.createSiddhiAppRuntime(getSiddhiApp());
+        siddhiAppRuntime.start();
+        long elapsed = System.nanoTime() - start;
+        runtimesCreated.incrementAndGet();
+        totalSetupNanos.addAndGet(elapsed);
+        ReportTrace trace = ReportTrace.current();
+        if (trace != null) {
+            trace.addPhaseNanos(ReportPhase.RUNTIME_STARTUP, elapsed);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Created Siddhi runtime for report queries in " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                    + " ms (pool size " + maxSize + ").");
+        }
+        return new PooledRuntime(siddhiManager, siddhiAppRuntime);
+    }
+
+    private String getSiddhiApp() throws IOException {
+
+        String app = siddhiApp;
+        if (app == null) {
+            try (InputStream inputStream = DefaultReportGeneratorImpl.class
+                    .getResourceAsStream(REQUEST_SUMMARY_MONTHLY_APP_NAME)) {
+                if (inputStream == null) {
+                    throw new IOException("Siddhi app " + REQUEST_SUMMARY_MONTHLY_APP_NAME + " not found.");
+                }
+                app = IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+            }
+            siddhiApp = app;
+        }
+        return app;
+    }
+
+    /**
+     * Shuts down all idle runtimes and rejects further queries. Runtimes in use are shut down when released.
+     */
+    public void shutdown() {
+
+        shutdown = true;
+        PooledRuntime runtime;
+        while ((runtime = idleRuntimes.pollFirst()) != null) {
+            runtime.shutdown();
+        }
+    }
+
+    @Override
+    public long getRuntimesCreated() {
+
+        return runtimesCreated.get();
+    }
+
+    @Override
+    public long getQueryCount() {
+
+        return queryCount.get();
+    }
+
+    @Override
+    public long getReusedQueryCount() {
+
+        return reusedQueryCount.get();
+    }
+
+    @Override
+    public int getIdleRuntimeCount() {
+
+        return idleRuntimes.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+
+        return maxSize;
+    }
+
+    @Override
+    public long getTotalSetupMillis() {
+
+        return TimeUnit.NANOSECONDS.toMillis(totalSetupNanos.get());
+    }
+
+    /**
+     * Estimates the setup time avoided by reusing runtimes, i.e. the average setup time of a runtime multiplied by
+     * the number of queries that found an idle runtime.
+     *
+     * @return estimated setup time saved in milliseconds.
+     */
+    @Override
+    public long getSetupTimeSavedMillis() {
+
+        long created = runtimesCreated.get();
+        if (created == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(totalSetupNanos.get() / created * reusedQueryCount.get());
+    }
+
+    private static final class PooledRuntime {
+
+        private final SiddhiManager siddhiManager;
+        private final SiddhiAppRuntime siddhiAppRuntime;
+
+        private PooledRuntime(SiddhiManager siddhiManager, SiddhiAppRuntime siddhiAppRuntime) {
+
+            this.siddhiManager = siddhiManager;
+            this.siddhiAppRuntime = siddhiAppRuntime;
+        }
+
+        private void shutdown() {
+
+            try {
+                siddhiAppRuntime.shutdown();
+                siddhiManager.shutdown();
+            } catch (RuntimeException e) {
+                log.warn("Error while shutting down Siddhi runtime.", e);
+            }
+        }
+    }
+}
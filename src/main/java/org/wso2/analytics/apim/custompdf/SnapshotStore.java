@@ -0,0 +1,386 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local store of {@link MonthlySnapshot} files, one per closed month, in {@link ReportConfig#getSnapshotDirectory()}.
+ *
+ * Reports of a month with a snapshot read their rows from the memory-mapped file instead of querying Siddhi. A
+ * snapshot is written whenever a batch run aggregates a closed month, or by the rebuild command:
+ * <pre>
+ * java -Dcustompdf.snapshot.dir=/path/to/snapshots -cp ... org.wso2.analytics.apim.custompdf.SnapshotStore 2020 03
+ * </pre>
+ * Files are replaced atomically, and a file changed on disk, e.g. by the rebuild command of another process, is
+ * mapped again on next use. Files of another format version are ignored until rebuilt. Invalidating the report of
+ * a tenant through {@link ReportCache} records the tenant in {@code usage-<yyyy-MM>.invalidated}: its rows are no
+ * longer served from the snapshot, and the all-tenants rows of the month are not either, so the next batch run
+ * queries the month and rewrites its snapshot.
+ */
+public final class SnapshotStore {
+
+    private static final Log log = LogFactory.getLog(SnapshotStore.class);
+    private static final String FILE_PREFIX = "usage-";
+    private static final String FILE_SUFFIX = ".snapshot";
+    private static final String INVALIDATED_SUFFIX = ".invalidated";
+    private static volatile SnapshotStore instance;
+
+    private final Path directory;
+    private final Map<YearMonth, MappedFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory directory of the snapshot files, or null to disable snapshots.
+     */
+    SnapshotStore(Path directory) {
+
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the shared store, creating it on first use.
+     *
+     * @return the process-wide snapshot store.
+     */
+    public static SnapshotStore getInstance() {
+
+        SnapshotStore store = instance;
+        if (store == null) {
+            synchronized (SnapshotStore.class) {
+                store = instance;
+                if (store == null) {
+                    String dir = ReportConfig.getSnapshotDirectory();
+                    store = new SnapshotStore(dir == null ? null : Paths.get(dir));
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    public boolean isEnabled() {
+
+        return directory != null;
+    }
+
+    /**
+     * Returns the rows of a tenant from the snapshot of a month.
+     *
+     * @param tenantDomain tenant domain.
+     * @param year         year of the report.
+     * @param month        month of the report.
+     * @return the rows, empty if the tenant had no usage, or null if there is no valid snapshot of the month or the
+     *         tenant was invalidated in it.
+     */
+    public UsageRows getTenantRows(String tenantDomain, int year, int month) {
+
+        MappedFile mapped = getMappedFile(year, month);
+        if (mapped == null || mapped.snapshot == null || mapped.invalidated.contains(tenantDomain)) {
+            return null;
+        }
+        return mapped.snapshot.getTenantRows(tenantDomain);
+    }
+
+    /**
+     * Returns the rows of all tenants from the snapshot of a month.
+     *
+     * @param year  year of the reports.
+     * @param month month of the reports.
+     * @return rows keyed by tenant domain, or null if there is no valid snapshot of the month or a tenant was
+     *         invalidated in it.
+     */
+    public Map<String, UsageRows> getAllTenantRows(int year, int month) {
+
+        MappedFile mapped = getMappedFile(year, month);
+        // the rows of an invalidated tenant are unknown, so all tenants are queried again and the snapshot rewritten.
+        if (mapped == null || mapped.snapshot == null || !mapped.invalidated.isEmpty()) {
+            return null;
+        }
+        return mapped.snapshot.getAllTenantRows();
+    }
+
+    /**
+     * Writes the snapshot of a closed month, replacing an existing one. Does nothing when snapshots are disabled or
+     * the month is not closed yet.
+     *
+     * @param year         year of the data.
+     * @param month        month of the data.
+     * @param rowsByTenant aggregated rows of every tenant with usage in the month.
+     * @return true if the snapshot was written.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public boolean save(int year, int month, Map<String, UsageRows> rowsByTenant) throws IOException {
+
+        YearMonth yearMonth = YearMonth.of(year, month);
+        if (directory == null || !yearMonth.isBefore(YearMonth.now())) {
+            return false;
+        }
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, FILE_PREFIX, ".tmp");
+        try {
+            MonthlySnapshot.write(temp, year, month, rowsByTenant);
+            Files.move(temp, file(yearMonth), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        // the new snapshot holds the current rows of every tenant, so earlier invalidations no longer apply.
+        Files.deleteIfExists(invalidatedFile(yearMonth));
+        files.remove(yearMonth);
+        log.info("Wrote report snapshot of " + yearMonth + " with " + rowsByTenant.size() + " tenants.");
+        return true;
+    }
+
+    /**
+     * Aggregates a closed month with a single Siddhi query and writes its snapshot.
+     *
+     * @param year  year of the data.
+     * @param month month of the data.
+     * @return number of tenants in the snapshot.
+     * @throws IOException if the aggregation cannot be queried or the snapshot cannot be written.
+     */
+    public int rebuild(String year, String month) throws IOException {
+
+        if (directory == null) {
+            throw new IOException("Report snapshots are disabled, set " + ReportConfig.SNAPSHOT_DIRECTORY + ".");
+        }
+        int y = Integer.parseInt(year);
+        int m = Integer.parseInt(month);
+        if (!YearMonth.of(y, m).isBefore(YearMonth.now())) {
+            throw new IOException("Month " + year + "-" + month + " is not closed yet.");
+        }
+        Map<String, UsageRows> rowsByTenant = AllTenantsAggregation.query(year, month);
+        save(y, m, rowsByTenant);
+        return rowsByTenant.size();
+    }
+
+    /**
+     * Stops serving the rows of a tenant from the snapshot of a month, e.g. after late-arriving events were
+     * aggregated. The tenant is recorded next to the snapshot, so its reports query Siddhi while the other tenants
+     * keep reading the snapshot, until a batch run or the rebuild command writes the month again.
+     *
+     * @param tenantDomain tenant domain.
+     * @param year         year of the data.
+     * @param month        month of the data.
+     */
+    public void invalidate(String tenantDomain, int year, int month) {
+
+        YearMonth yearMonth = YearMonth.of(year, month);
+        if (directory == null || !yearMonth.isBefore(YearMonth.now()) || !Files.exists(file(yearMonth))) {
+            return;
+        }
+        markInvalidated(tenantDomain, yearMonth);
+    }
+
+    /**
+     * Stops serving the rows of a tenant from the snapshot of every month it had usage in.
+     *
+     * @param tenantDomain tenant domain.
+     */
+    public void invalidateTenant(String tenantDomain) {
+
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                YearMonth yearMonth;
+                try {
+                    yearMonth = YearMonth.parse(name.substring(FILE_PREFIX.length(),
+                            name.length() - FILE_SUFFIX.length()));
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                MappedFile mapped = getMappedFile(yearMonth.getYear(), yearMonth.getMonthValue());
+                if (mapped != null && mapped.snapshot != null && mapped.snapshot.hasTenant(tenantDomain)) {
+                    markInvalidated(tenantDomain, yearMonth);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not list report snapshots in " + directory, e);
+        }
+    }
+
+    private void markInvalidated(String tenantDomain, YearMonth yearMonth) {
+
+        Path file = invalidatedFile(yearMonth);
+        try {
+            Files.write(file, (tenantDomain + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // without the record the snapshot would keep serving the old rows, so it is not used at all.
+            log.warn("Could not record invalidated tenant in " + file + ", deleting the report snapshot of "
+                    + yearMonth, e);
+            try {
+                Files.deleteIfExists(file(yearMonth));
+            } catch (IOException deleteError) {
+                log.error("Could not delete report snapshot " + file(yearMonth), deleteError);
+            }
+        }
+        files.remove(yearMonth);
+        log.warn("Report snapshot of " + yearMonth + " no longer serves tenant " + tenantDomain
+                + ", whose reports query Siddhi until the snapshot is rebuilt by a batch run or with: "
+                + SnapshotStore.class.getName() + " " + yearMonth.getYear() + " " + yearMonth.getMonthValue());
+    }
+
+    private MappedFile getMappedFile(int year, int month) {
+
+        if (directory == null) {
+            return null;
+        }
+        YearMonth yearMonth = YearMonth.of(year, month);
+        if (!yearMonth.isBefore(YearMonth.now())) {
+            return null;
+        }
+        Path file = file(yearMonth);
+        FileTime modified;
+        FileTime invalidatedModified;
+        try {
+            modified = Files.getLastModifiedTime(file);
+            invalidatedModified = getLastModifiedTime(invalidatedFile(yearMonth));
+        } catch (NoSuchFileException e) {
+            files.remove(yearMonth);
+            return null;
+        } catch (IOException e) {
+            log.warn("Could not access report snapshot " + file, e);
+            return null;
+        }
+        MappedFile mapped = files.get(yearMonth);
+        if (mapped == null || !mapped.modified.equals(modified)
+                || !Objects.equals(mapped.invalidatedModified, invalidatedModified)) {
+            MonthlySnapshot snapshot = mapped != null && mapped.modified.equals(modified) ? mapped.snapshot
+                    : map(file);
+            Set<String> invalidated;
+            try {
+                invalidated = readInvalidated(invalidatedFile(yearMonth));
+            } catch (IOException e) {
+                log.warn("Could not read invalidated tenants of report snapshot " + file + ", ignoring it.", e);
+                snapshot = null;
+                invalidated = Collections.emptySet();
+            }
+            mapped = new MappedFile(snapshot, modified, invalidated, invalidatedModified);
+            files.put(yearMonth, mapped);
+        }
+        return mapped;
+    }
+
+    private static FileTime getLastModifiedTime(Path file) throws IOException {
+
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static Set<String> readInvalidated(Path file) throws IOException {
+
+        Set<String> invalidated = new HashSet<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    invalidated.add(line);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Collections.emptySet();
+        }
+        return invalidated;
+    }
+
+    private static MonthlySnapshot map(Path file) {
+
+        try {
+            return MonthlySnapshot.open(file);
+        } catch (IOException e) {
+            // remembered with its modification time, so an invalid file is reported once rather than per report.
+            log.warn("Ignoring report snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Path file(YearMonth yearMonth) {
+
+        return directory.resolve(FILE_PREFIX + yearMonth + FILE_SUFFIX);
+    }
+
+    private Path invalidatedFile(YearMonth yearMonth) {
+
+        return directory.resolve(FILE_PREFIX + yearMonth + INVALIDATED_SUFFIX);
+    }
+
+    /**
+     * Rebuilds the snapshot of a month.
+     *
+     * @param args year and month.
+     */
+    public static void main(String[] args) {
+
+        if (args.length != 2) {
+            System.err.println("Usage: SnapshotStore <year> <month>  (with -D" + ReportConfig.SNAPSHOT_DIRECTORY
+                    + "=<dir>)");
+            System.exit(2);
+        }
+        try {
+            int tenants = getInstance().rebuild(args[0], args[1]);
+            System.out.println("Rebuilt report snapshot of " + args[0] + "-" + args[1] + " with " + tenants
+                    + " tenants.");
+            SiddhiRuntimePool.getInstance().shutdown();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not rebuild report snapshot: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static final class MappedFile {
+
+        private final MonthlySnapshot snapshot;
+        private final FileTime modified;
+        private final Set<String> invalidated;
+        private final FileTime invalidatedModified;
+
+        private MappedFile(MonthlySnapshot snapshot, FileTime modified, Set<String> invalidated,
+                FileTime invalidatedModified) {
+
+            this.snapshot = snapshot;
+            this.modified = modified;
+            this.invalidated = invalidated;
+            this.invalidatedModified = invalidatedModified;
+        }
+    }
+}
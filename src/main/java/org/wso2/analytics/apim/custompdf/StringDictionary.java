@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the strings of report rows to dense integer ids so that every distinct API name, version, application name
+ * and owner is stored once however many rows refer to it. Not thread-safe.
+ */
+public final class StringDictionary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<String, Integer> trimmedIds = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Returns the id of a string, adding it to the dictionary if needed.
+     *
+     * @param value the string.
+     * @return its id.
+     */
+    public int intern(String value) {
+
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the part of a string before the first occurrence of a separator, e.g. the user name of
+     * {@code admin@carbon.super}. The cut is done only the first time a string is seen.
+     *
+     * @param value     the string.
+     * @param separator separator to cut at.
+     * @return id of the prefix, or of the whole string if it has no separator.
+     */
+    public int internBefore(String value, char separator) {
+
+        Integer id = trimmedIds.get(value);
+        if (id == null) {
+            int index = value.indexOf(separator);
+            id = intern(index < 0 ? value : value.substring(0, index));
+            trimmedIds.put(value, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param id id returned by {@link #intern(String)}.
+     * @return the string.
+     */
+    public String get(int id) {
+
+        return values.get(id);
+    }
+
+    /**
+     * @return number of distinct strings.
+     */
+    public int size() {
+
+        return values.size();
+    }
+}
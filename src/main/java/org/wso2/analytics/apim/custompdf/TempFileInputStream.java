@@ -0,0 +1,124 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Input stream over a temporary file which deletes the file when the stream is closed.
+ */
+public class TempFileInputStream extends FilterInputStream {
+
+    private static final Log log = LogFactory.getLog(TempFileInputStream.class);
+    private final Path file;
+    private final long length;
+    private boolean closed;
+
+    /**
+     * Opens the temporary file. The file is deleted if its size cannot be read or it cannot be opened.
+     *
+     * @param file the temporary file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public TempFileInputStream(Path file) throws IOException {
+
+        // the size is read before the stream is opened, so that no stream is left open if it fails.
+        this(file, size(file));
+    }
+
+    private TempFileInputStream(Path file, long length) throws IOException {
+
+        super(open(file));
+        this.file = file;
+        this.length = length;
+    }
+
+    private static long size(Path file) throws IOException {
+
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private static BufferedInputStream open(Path file) throws IOException {
+
+        try {
+            return new BufferedInputStream(Files.newInputStream(file));
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * @return size of the underlying file in bytes.
+     */
+    public long getLength() {
+
+        return length;
+    }
+
+    /**
+     * Closes the stream but keeps the file, which the caller becomes responsible for deleting.
+     *
+     * @return the temporary file.
+     * @throws IOException if the stream cannot be closed, in which case the file is deleted.
+     */
+    Path detach() throws IOException {
+
+        if (closed) {
+            throw new IOException("Stream over temporary report file " + file + " is already closed.");
+        }
+        closed = true;
+        try {
+            super.close();
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete temporary report file " + file, e);
+            }
+        }
+    }
+}
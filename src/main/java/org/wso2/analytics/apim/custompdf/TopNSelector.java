@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.Arrays;
+
+/**
+ * Selects the N rows with the largest request counts from a stream of rows using a bounded min-heap, so memory is
+ * bounded by N however many rows are offered. Counts of rows that do not make it are summed up instead.
+ *
+ * Among rows with equal counts the ones offered first are kept, which preserves the order of an already sorted
+ * stream. Not thread-safe.
+ */
+final class TopNSelector {
+
+    private final int limit;
+    private final int[] indexes;
+    private final long[] counts;
+    private int size;
+    private long othersCount;
+    private int othersRows;
+
+    /**
+     * @param limit number of rows to keep, at least 1.
+     */
+    TopNSelector(int limit) {
+
+        this.limit = limit;
+        this.indexes = new int[limit];
+        this.counts = new long[limit];
+    }
+
+    /**
+     * Offers a row.
+     *
+     * @param index position of the row in the stream, increasing with every call.
+     * @param count request count of the row.
+     */
+    void offer(int index, long count) {
+
+        if (size < limit) {
+            indexes[size] = index;
+            counts[size] = count;
+            siftUp(size++);
+        } else if (count > counts[0]) {
+            // rows offered later lose ties, so only a strictly larger count replaces the smallest kept row.
+            fold(counts[0]);
+            indexes[0] = index;
+            counts[0] = count;
+            siftDown(0);
+        } else {
+            fold(count);
+        }
+    }
+
+    private void fold(long count) {
+
+        othersCount += count;
+        othersRows++;
+    }
+
+    /**
+     * @return stream positions of the kept rows, by descending count and then by position.
+     */
+    int[] getSortedIndexes() {
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a])
+                : Integer.compare(indexes[a], indexes[b]));
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = indexes[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * @return sum of the counts of the rows that were not kept.
+     */
+    long getOthersCount() {
+
+        return othersCount;
+    }
+
+    /**
+     * @return number of rows that were not kept.
+     */
+    int getOthersRows() {
+
+        return othersRows;
+    }
+
+    /**
+     * Heap order: the smallest count is at the root, and among equal counts the row offered last.
+     */
+    private boolean less(int a, int b) {
+
+        return counts[a] < counts[b] || counts[a] == counts[b] && indexes[a] > indexes[b];
+    }
+
+    private void siftUp(int position) {
+
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!less(position, parent)) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && less(child + 1, child)) {
+                child++;
+            }
+            if (!less(child, position)) {
+                return;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+
+        int index = indexes[a];
+        indexes[a] = indexes[b];
+        indexes[b] = index;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import io.siddhi.core.event.Event;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar, compact form of the aggregated rows of a report.
+ *
+ * Strings are interned in a {@link StringDictionary} and each row is stored as four dictionary ids and a primitive
+ * request count, so converting query events allocates only the growing column arrays and the distinct strings.
+ * Rows are appended in the order they should be printed.
+ */
+public final class UsageRows implements ReportRowSource {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * API name column of the row that sums up the rows left out of a top-N report.
+     */
+    public static final String OTHERS_LABEL = "Otros";
+
+    private final StringDictionary dictionary;
+    private int[] apiNames;
+    private int[] apiVersions;
+    private int[] applicationNames;
+    private int[] applicationOwners;
+    private long[] requestCounts;
+    private int size;
+    private long totalRequestCount;
+    private boolean hasOthersRow;
+
+    public UsageRows() {
+
+        this(new StringDictionary(), INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param dictionary dictionary to intern strings in. Rows that are cached or merged should not share it with
+     *                   other rows, as the cache only weighs rows and merging sizes its lookups to the dictionary.
+     * @param capacity   expected number of rows.
+     */
+    public UsageRows(StringDictionary dictionary, int capacity) {
+
+        int initialCapacity = Math.max(1, capacity);
+        this.dictionary = dictionary;
+        this.apiNames = new int[initialCapacity];
+        this.apiVersions = new int[initialCapacity];
+        this.applicationNames = new int[initialCapacity];
+        this.applicationOwners = new int[initialCapacity];
+        this.requestCounts = new long[initialCapacity];
+    }
+
+    /**
+     * Converts the events of the per-tenant aggregation query.
+     *
+     * @param events events with API name, API version, application name, application owner and request count as
+     *               data, may be null.
+     * @return the rows.
+     */
+    public static UsageRows fromEvents(Event[] events) {
+
+        if (events == null) {
+            return new UsageRows();
+        }
+        UsageRows rows = new UsageRows(new StringDictionary(), events.length);
+        for (Event event : events) {
+            rows.add(event.getData(), 0);
+        }
+        return rows;
+    }
+
+    /**
+     * Converts the events of the per-tenant aggregation query keeping only the rows with the largest request counts.
+     * The events need not be sorted, the kept rows are sorted in any case.
+     *
+     * @param events events as for {@link #fromEvents(Event[])}, may be null.
+     * @param limit  number of rows to keep, 0 to keep all.
+     * @return the kept rows in descending request count order, followed by an {@link #OTHERS_LABEL} row summing up
+     *         the rest if any were left out.
+     */
+    public static UsageRows fromEvents(Event[] events, int limit) {
+
+        if (events == null || limit <= 0) {
+            return fromEvents(events);
+        }
+        TopNSelector selector = new TopNSelector(limit);
+        for (int i = 0; i < events.length; i++) {
+            selector.offer(i, ((Number) events[i].getData(4)).longValue());
+        }
+        int[] kept = selector.getSortedIndexes();
+        UsageRows rows = new UsageRows(new StringDictionary(), kept.length + 1);
+        for (int index : kept) {
+            rows.add(events[index].getData(), 0);
+        }
+        if (selector.getOthersRows() > 0) {
+            rows.addOthers(selector.getOthersCount());
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the rows with the largest request counts.
+     *
+     * @param limit number of rows to keep, 0 to keep all.
+     * @return these rows if they are not more than the limit, otherwise new rows holding the kept rows in
+     *         descending request count order and an {@link #OTHERS_LABEL} row summing up the rest.
+     */
+    public UsageRows top(int limit) {
+
+        if (limit <= 0 || size <= limit) {
+            return this;
+        }
+        TopNSelector selector = new TopNSelector(limit);
+        for (int i = 0; i < size; i++) {
+            selector.offer(i, requestCounts[i]);
+        }
+        int[] kept = selector.getSortedIndexes();
+        // a new dictionary, so that the kept rows do not hold on to the strings of the dropped ones.
+        UsageRows rows = new UsageRows(new StringDictionary(), kept.length + 1);
+        for (int index : kept) {
+            rows.add(getApiName(index), getApiVersion(index), getApplicationName(index),
+                    getApplicationOwner(index), requestCounts[index]);
+        }
+        rows.addOthers(selector.getOthersCount());
+        return rows;
+    }
+
+    /**
+     * Merges partial aggregates, e.g. the rows of consecutive months, summing up the request counts of rows with the
+     * same API name, API version, application name and application owner.
+     *
+     * The rows are merged in a hash table over dictionary ids, and the strings of each partial are interned once
+     * per distinct string rather than once per row, so the cost is linear in the number of rows and only the
+     * selection of the printed rows sorts.
+     *
+     * @param partials rows to merge, which are not modified and must not hold an {@link #OTHERS_LABEL} row.
+     * @param limit    number of rows to keep, 0 to keep all.
+     * @return the merged rows in descending request count order, followed by an {@link #OTHERS_LABEL} row summing
+     *         up the rest if any were left out. Among equal counts the key seen first comes first.
+     */
+    public static UsageRows merge(List<UsageRows> partials, int limit) {
+
+        int capacity = 0;
+        for (UsageRows partial : partials) {
+            if (partial.hasOthersRow) {
+                throw new IllegalArgumentException("Rows of a top-N report cannot be merged.");
+            }
+            capacity = Math.max(capacity, partial.size);
+        }
+        UsageRows merged = new UsageRows(new StringDictionary(), capacity);
+        // slots hold the merged row index + 1, 0 marks a free slot; at most half of the slots are used.
+        int[] slots = new int[tableSize(capacity)];
+        for (UsageRows partial : partials) {
+            int[] ids = new int[partial.dictionary.size()];
+            Arrays.fill(ids, -1);
+            for (int i = 0; i < partial.size; i++) {
+                int apiName = merged.translate(partial, ids, partial.apiNames[i]);
+                int apiVersion = merged.translate(partial, ids, partial.apiVersions[i]);
+                int applicationName = merged.translate(partial, ids, partial.applicationNames[i]);
+                int applicationOwner = merged.translate(partial, ids, partial.applicationOwners[i]);
+                int mask = slots.length - 1;
+                int slot = hash(apiName, apiVersion, applicationName, applicationOwner) & mask;
+                int row;
+                while ((row = slots[slot] - 1) >= 0 && !merged.hasKey(row, apiName, apiVersion, applicationName,
+                        applicationOwner)) {
+                    slot = (slot + 1) & mask;
+                }
+                long count = partial.requestCounts[i];
+                if (row >= 0) {
+                    merged.requestCounts[row] += count;
+                    merged.totalRequestCount += count;
+                    continue;
+                }
+                merged.ensureCapacity(merged.size + 1);
+                merged.apiNames[merged.size] = apiName;
+                merged.apiVersions[merged.size] = apiVersion;
+                merged.applicationNames[merged.size] = applicationName;
+                merged.applicationOwners[merged.size] = applicationOwner;
+                merged.requestCounts[merged.size] = count;
+                merged.totalRequestCount += count;
+                slots[slot] = ++merged.size;
+                if (2 * merged.size > slots.length) {
+                    slots = merged.rehash(slots.length * 2);
+                }
+            }
+        }
+        return merged.select(limit);
+    }
+
+    private int translate(UsageRows partial, int[] ids, int id) {
+
+        int translated = ids[id];
+        if (translated < 0) {
+            translated = dictionary.intern(partial.dictionary.get(id));
+            ids[id] = translated;
+        }
+        return translated;
+    }
+
+    private boolean hasKey(int row, int apiName, int apiVersion, int applicationName, int applicationOwner) {
+
+        return apiNames[row] == apiName && apiVersions[row] == apiVersion && applicationNames[row] == applicationName
+                && applicationOwners[row] == applicationOwner;
+    }
+
+    private int[] rehash(int tableSize) {
+
+        int[] slots = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = hash(apiNames[row], apiVersions[row], applicationNames[row], applicationOwners[row]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+        return slots;
+    }
+
+    private static int tableSize(int rows) {
+
+        int tableSize = 16;
+        while (tableSize < 2 * rows) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static int hash(int apiName, int apiVersion, int applicationName, int applicationOwner) {
+
+        int hash = apiName;
+        hash = 31 * hash + apiVersion;
+        hash = 31 * hash + applicationName;
+        hash = 31 * hash + applicationOwner;
+        // spread the bits, as the ids are small and dense.
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns these rows in descending request count order, keeping at most the given number of them.
+     */
+    private UsageRows select(int limit) {
+
+        if (size == 0) {
+            return this;
+        }
+        TopNSelector selector = new TopNSelector(limit > 0 ? Math.min(limit, size) : size);
+        for (int i = 0; i < size; i++) {
+            selector.offer(i, requestCounts[i]);
+        }
+        int[] kept = selector.getSortedIndexes();
+        UsageRows rows = new UsageRows(dictionary, kept.length + 1);
+        for (int index : kept) {
+            rows.apiNames[rows.size] = apiNames[index];
+            rows.apiVersions[rows.size] = apiVersions[index];
+            rows.applicationNames[rows.size] = applicationNames[index];
+            rows.applicationOwners[rows.size] = applicationOwners[index];
+            rows.requestCounts[rows.size] = requestCounts[index];
+            rows.totalRequestCount += requestCounts[index];
+            rows.size++;
+        }
+        if (selector.getOthersRows() > 0) {
+            rows.addOthers(selector.getOthersCount());
+        }
+        return rows;
+    }
+
+    private void addOthers(long requestCount) {
+
+        add(OTHERS_LABEL, "", "", "", requestCount);
+        hasOthersRow = true;
+    }
+
+    /**
+     * Appends a row from event data.
+     *
+     * @param data        event data.
+     * @param firstColumn index of the API name in the data, followed by API version, application name, application
+     *                    owner and request count.
+     */
+    public void add(Object[] data, int firstColumn) {
+
+        ensureCapacity(size + 1);
+        apiNames[size] = dictionary.intern(data[firstColumn].toString());
+        apiVersions[size] = dictionary.intern(data[firstColumn + 1].toString());
+        applicationNames[size] = dictionary.intern(data[firstColumn + 2].toString());
+        // owners are stored as user@tenant, only the user name is printed.
+        applicationOwners[size] = dictionary.internBefore(data[firstColumn + 3].toString(), '@');
+        long count = ((Number) data[firstColumn + 4]).longValue();
+        requestCounts[size] = count;
+        totalRequestCount += count;
+        size++;
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param apiName          API name.
+     * @param apiVersion       API version.
+     * @param applicationName  application name.
+     * @param applicationOwner application owner, printed as is.
+     * @param requestCount     request count.
+     */
+    public void add(String apiName, String apiVersion, String applicationName, String applicationOwner,
+            long requestCount) {
+
+        ensureCapacity(size + 1);
+        apiNames[size] = dictionary.intern(apiName);
+        apiVersions[size] = dictionary.intern(apiVersion);
+        applicationNames[size] = dictionary.intern(applicationName);
+        applicationOwners[size] = dictionary.intern(applicationOwner);
+        requestCounts[size] = requestCount;
+        totalRequestCount += requestCount;
+        size++;
+    }
+
+    private void ensureCapacity(int capacity) {
+
+        if (capacity > requestCounts.length) {
+            resize(Math.max(capacity, requestCounts.length * 2));
+        }
+    }
+
+    private void resize(int capacity) {
+
+        apiNames = Arrays.copyOf(apiNames, capacity);
+        apiVersions = Arrays.copyOf(apiVersions, capacity);
+        applicationNames = Arrays.copyOf(applicationNames, capacity);
+        applicationOwners = Arrays.copyOf(applicationOwners, capacity);
+        requestCounts = Arrays.copyOf(requestCounts, capacity);
+    }
+
+    /**
+     * Returns these rows without unused capacity, e.g. before they are cached. These rows are not modified.
+     *
+     * @return these rows if they have no unused capacity, otherwise a copy sharing their dictionary.
+     */
+    public UsageRows trimmed() {
+
+        if (requestCounts.length <= Math.max(1, size)) {
+            return this;
+        }
+        UsageRows rows = new UsageRows(dictionary, size);
+        System.arraycopy(apiNames, 0, rows.apiNames, 0, size);
+        System.arraycopy(apiVersions, 0, rows.apiVersions, 0, size);
+        System.arraycopy(applicationNames, 0, rows.applicationNames, 0, size);
+        System.arraycopy(applicationOwners, 0, rows.applicationOwners, 0, size);
+        System.arraycopy(requestCounts, 0, rows.requestCounts, 0, size);
+        rows.size = size;
+        rows.totalRequestCount = totalRequestCount;
+        rows.hasOthersRow = hasOthersRow;
+        return rows;
+    }
+
+    @Override
+    public int size() {
+
+        return size;
+    }
+
+    @Override
+    public void getRow(int index, String[] cells) {
+
+        cells[0] = hasOthersRow && index == size - 1 ? "" : (index + 1) + ")";
+        cells[1] = dictionary.get(apiNames[index]);
+        cells[2] = dictionary.get(apiVersions[index]);
+        cells[3] = dictionary.get(applicationNames[index]);
+        cells[4] = dictionary.get(applicationOwners[index]);
+        cells[5] = Long.toString(requestCounts[index]);
+    }
+
+    public String getApiName(int index) {
+
+        return dictionary.get(apiNames[index]);
+    }
+
+    public String getApiVersion(int index) {
+
+        return dictionary.get(apiVersions[index]);
+    }
+
+    public String getApplicationName(int index) {
+
+        return dictionary.get(applicationNames[index]);
+    }
+
+    public String getApplicationOwner(int index) {
+
+        return dictionary.get(applicationOwners[index]);
+    }
+
+    public long getRequestCount(int index) {
+
+        return requestCounts[index];
+    }
+
+    /**
+     * @return true if the last row sums up the rows left out of a top-N report.
+     */
+    public boolean hasOthersRow() {
+
+        return hasOthersRow;
+    }
+
+    /**
+     * @return sum of the request counts of all rows.
+     */
+    public long getTotalRequestCount() {
+
+        return totalRequestCount;
+    }
+}
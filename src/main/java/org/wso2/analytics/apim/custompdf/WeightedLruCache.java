@@ -0,0 +1,222 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe LRU map bounded by the total weight of its values, with optional per-entry expiry.
+ *
+ * @param <K> key type.
+ * @param <V> value type.
+ */
+class WeightedLruCache<K, V> {
+
+    /**
+     * Computes the weight of a value, e.g. its size in bytes.
+     *
+     * @param <V> value type.
+     */
+    interface Weigher<V> {
+
+        long weigh(V value);
+    }
+
+    /**
+     * Notified when an entry is pushed out of the cache because the weight limit was exceeded.
+     *
+     * @param <K> key type.
+     * @param <V> value type.
+     */
+    interface EvictionListener<K, V> {
+
+        void onEviction(K key, V value);
+    }
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxWeight;
+    private final Weigher<V> weigher;
+    private final EvictionListener<K, V> evictionListener;
+    private long currentWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    WeightedLruCache(long maxWeight, Weigher<V> weigher, EvictionListener<K, V> evictionListener) {
+
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+    }
+
+    V get(K key) {
+
+        V value = null;
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    entries.remove(key);
+                    currentWeight -= entry.weight;
+                } else {
+                    value = entry.value;
+                }
+            }
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Adds a value to the cache. A value heavier than the whole cache is not cached, but still replaces the value
+     * cached for the key so that the old one is no longer returned.
+     *
+     * @param key       the key.
+     * @param value     the value.
+     * @param ttlMillis time to live in milliseconds, or 0 for no expiry.
+     */
+    void put(K key, V value, long ttlMillis) {
+
+        long weight = weigher.weigh(value);
+        if (weight > maxWeight) {
+            remove(key);
+            return;
+        }
+        long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+        List<Map.Entry<K, V>> evicted = new ArrayList<>();
+        synchronized (this) {
+            Entry<V> previous = entries.put(key, new Entry<>(value, weight, expiresAt));
+            if (previous != null) {
+                currentWeight -= previous.weight;
+            }
+            currentWeight += weight;
+            Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+            while (currentWeight > maxWeight && iterator.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = iterator.next();
+                iterator.remove();
+                currentWeight -= eldest.getValue().weight;
+                if (!eldest.getValue().isExpired(System.currentTimeMillis())) {
+                    evicted.add(new AbstractMap.SimpleImmutableEntry<>(eldest.getKey(),
+                            eldest.getValue().value));
+                }
+            }
+        }
+        evictions.addAndGet(evicted.size());
+        if (evictionListener != null) {
+            for (Map.Entry<K, V> entry : evicted) {
+                evictionListener.onEviction(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    synchronized void remove(K key) {
+
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            currentWeight -= entry.weight;
+        }
+    }
+
+    synchronized void removeIf(KeyFilter<K> filter) {
+
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = iterator.next();
+            if (filter.matches(entry.getKey())) {
+                iterator.remove();
+                currentWeight -= entry.getValue().weight;
+            }
+        }
+    }
+
+    synchronized void clear() {
+
+        entries.clear();
+        currentWeight = 0;
+    }
+
+    synchronized int size() {
+
+        return entries.size();
+    }
+
+    synchronized long getWeight() {
+
+        return currentWeight;
+    }
+
+    long getMaxWeight() {
+
+        return maxWeight;
+    }
+
+    long getHits() {
+
+        return hits.get();
+    }
+
+    long getMisses() {
+
+        return misses.get();
+    }
+
+    long getEvictions() {
+
+        return evictions.get();
+    }
+
+    /**
+     * Selects keys to remove.
+     *
+     * @param <K> key type.
+     */
+    interface KeyFilter<K> {
+
+        boolean matches(K key);
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long weight;
+        private final long expiresAt;
+
+        private Entry(V value, long weight, long expiresAt) {
+
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+
+            return expiresAt != 0 && now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.wso2.analytics.apim.custompdf.CustomPDFGenerator.COLUMN_WIDTHS;
+
+/**
+ * Writes report rows as an Office Open XML workbook with a single sheet.
+ *
+ * Like POI's SXSSF, rows are written to the zipped sheet XML as they are read and never kept, so memory use does
+ * not depend on the number of rows. Strings are stored inline rather than in a shared string table, which would
+ * have to be held in memory until the end. Request counts are written as numbers and the header row is bold.
+ */
+final class XlsxReportExporter implements ReportExporter {
+
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    private static final String CONTENT_TYPES = XML_HEADER
+            + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+            + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+            + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+            + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument"
+            + ".spreadsheetml.sheet.main+xml\"/>"
+            + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-"
+            + "officedocument.spreadsheetml.worksheet+xml\"/>"
+            + "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument"
+            + ".spreadsheetml.styles+xml\"/>"
+            + "</Types>";
+    private static final String ROOT_RELS = XML_HEADER
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/"
+            + "officeDocument\" Target=\"xl/workbook.xml\"/>"
+            + "</Relationships>";
+    private static final String WORKBOOK = XML_HEADER
+            + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+            + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+            + "<sheets><sheet name=\"Resumen\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+            + "</workbook>";
+    private static final String WORKBOOK_RELS = XML_HEADER
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/"
+            + "worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+            + "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/"
+            + "styles\" Target=\"styles.xml\"/>"
+            + "</Relationships>";
+    private static final String STYLES = XML_HEADER
+            + "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+            + "<fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font>"
+            + "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>"
+            + "<fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            + "<cellXfs count=\"2\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+            + "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/></cellXfs>"
+            + "</styleSheet>";
+    // points of the PDF column widths per character of the sheet column width.
+    private static final float POINTS_PER_CHARACTER = 6;
+    private static final int REQUEST_COUNT_COLUMN = 5;
+
+    @Override
+    public void export(ReportRowSource rows, String[] columnHeaders, OutputStream out) throws IOException {
+
+        // the zip stream must be finished but the caller's stream stays open.
+        ZipOutputStream zip = new ZipOutputStream(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+
+                flush();
+            }
+        });
+        writeEntry(zip, "[Content_Types].xml", CONTENT_TYPES);
+        writeEntry(zip, "_rels/.rels", ROOT_RELS);
+        writeEntry(zip, "xl/workbook.xml", WORKBOOK);
+        writeEntry(zip, "xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+        writeEntry(zip, "xl/styles.xml", STYLES);
+
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(XML_HEADER);
+        writer.write("<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+        writer.write("<sheetViews><sheetView workbookViewId=\"0\"><pane ySplit=\"1\" topLeftCell=\"A2\" "
+                + "activePane=\"bottomLeft\" state=\"frozen\"/></sheetView></sheetViews>");
+        writer.write("<cols>");
+        for (int i = 0; i < COLUMN_WIDTHS.length; i++) {
+            writer.write("<col min=\"" + (i + 1) + "\" max=\"" + (i + 1) + "\" width=\""
+                    + Math.round(COLUMN_WIDTHS[i] / POINTS_PER_CHARACTER) + "\" customWidth=\"1\"/>");
+        }
+        writer.write("</cols><sheetData>");
+        writer.write("<row r=\"1\">");
+        for (String header : columnHeaders) {
+            writeStringCell(writer, header, " s=\"1\"");
+        }
+        writer.write("</row>");
+        String[] cells = new String[ReportRowSource.COLUMN_COUNT];
+        for (int i = 0; i < rows.size(); i++) {
+            rows.getRow(i, cells);
+            writer.write("<row r=\"");
+            writer.write(Integer.toString(i + 2));
+            writer.write("\">");
+            String number = CsvReportExporter.rowNumber(cells[0], i);
+            if (number.isEmpty()) {
+                writer.write("<c/>");
+            } else {
+                writeNumberCell(writer, number);
+            }
+            for (int column = 1; column < cells.length; column++) {
+                if (column == REQUEST_COUNT_COLUMN) {
+                    writeNumberCell(writer, cells[column]);
+                } else {
+                    writeStringCell(writer, cells[column], "");
+                }
+            }
+            writer.write("</row>");
+        }
+        writer.write("</sheetData></worksheet>");
+        writer.flush();
+        zip.closeEntry();
+        zip.finish();
+        out.flush();
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, String content) throws IOException {
+
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static void writeNumberCell(Writer writer, String number) throws IOException {
+
+        writer.write("<c><v>");
+        writer.write(number);
+        writer.write("</v></c>");
+    }
+
+    private static void writeStringCell(Writer writer, String value, String style) throws IOException {
+
+        writer.write("<c t=\"inlineStr\"");
+        writer.write(style);
+        writer.write("><is><t xml:space=\"preserve\">");
+        writeEscaped(writer, value);
+        writer.write("</t></is></c>");
+    }
+
+    private static void writeEscaped(Writer writer, String value) throws IOException {
+
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    // control characters other than tab and line breaks are not allowed in XML 1.0.
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        writer.write(c);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class CsvReportExporterTest {
+
+    private static final String HEADER = "\uFEFF#,Nombre de la API,Versión,Nombre de la Aplicación,Usuario,"
+            + "Cantidad de peticiones\r\n";
+
+    @Test
+    public void testPlainCellsAreWrittenAsIs() throws IOException {
+
+        UsageRows rows = new UsageRows();
+        rows.add("PizzaShack", "1.0.0", "Default Application", "admin", 42);
+
+        Assert.assertEquals(export(rows), HEADER + "1,PizzaShack,1.0.0,Default Application,admin,42\r\n");
+    }
+
+    @Test
+    public void testFieldsWithSeparatorsAreQuoted() throws IOException {
+
+        UsageRows rows = new UsageRows();
+        rows.add("Pizza, \"Shack\"", "1.0.0", "line\nbreak", "admin", 7);
+
+        Assert.assertEquals(export(rows), HEADER + "1,\"Pizza, \"\"Shack\"\"\",1.0.0,\"line\nbreak\",admin,7\r\n");
+    }
+
+    @Test
+    public void testFormulaCellsAreNeutralized() throws IOException {
+
+        UsageRows rows = new UsageRows();
+        rows.add("=HYPERLINK(\"http://x\")", "+1", "-2", "@SUM(A1)", 1);
+        rows.add("\tTab", "\rReturn", "a=b", "user", 2);
+
+        Assert.assertEquals(export(rows), HEADER
+                + "1,\"'=HYPERLINK(\"\"http://x\"\")\",'+1,'-2,'@SUM(A1),1\r\n"
+                + "2,'\tTab,\"'\rReturn\",a=b,user,2\r\n");
+    }
+
+    @Test
+    public void testNeutralizeFormula() {
+
+        Assert.assertEquals(CsvReportExporter.neutralizeFormula(""), "");
+        Assert.assertEquals(CsvReportExporter.neutralizeFormula("1.0.0"), "1.0.0");
+        Assert.assertEquals(CsvReportExporter.neutralizeFormula("=1+1"), "'=1+1");
+        Assert.assertEquals(CsvReportExporter.neutralizeFormula("'quoted"), "'quoted");
+    }
+
+    @Test
+    public void testOthersRowHasNoNumber() throws IOException {
+
+        UsageRows rows = new UsageRows();
+        rows.add("A", "1", "app", "u", 5);
+        rows.add("B", "1", "app", "u", 3);
+        rows.add("C", "1", "app", "u", 1);
+
+        Assert.assertEquals(export(rows.top(1)), HEADER + "1,A,1,app,u,5\r\n,Otros,,,,4\r\n");
+    }
+
+    private static String export(ReportRowSource rows) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvReportExporter().export(rows, CustomPDFGenerator.COLUMN_HEADERS, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import io.siddhi.core.event.Event;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.util.PDFTextStripper;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.time.YearMonth;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CustomPDFGeneratorTest {
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    @BeforeClass
+    public void installQueryExecutor() {
+
+        SiddhiRuntimePool.setQueryExecutor(query -> {
+            queries.incrementAndGet();
+            return new Event[] {
+                    new Event(0, new Object[] { "PizzaShack", "1.0.0", "Default", "admin", 10L }),
+                    new Event(0, new Object[] { "Weather", "2.0", "Mobile", "alice", 4L }) };
+        });
+    }
+
+    @AfterClass
+    public void removeQueryExecutor() {
+
+        SiddhiRuntimePool.setQueryExecutor(null);
+    }
+
+    @Test
+    public void testQuarterReportTitle() throws Exception {
+
+        String text = render(CustomPDFGenerator.quarter("quarter.test.com", 2019, 2));
+
+        Assert.assertTrue(text.contains("Resumen de uso trimestral"), text);
+        Assert.assertTrue(text.contains("Abril - Junio 2019"), text);
+        Assert.assertFalse(text.contains("Resumen de uso mensual"), text);
+    }
+
+    @Test
+    public void testYearToDateReportTitle() throws Exception {
+
+        String text = render(CustomPDFGenerator.yearToDate("year.test.com", 2019));
+
+        Assert.assertTrue(text.contains("Resumen de uso anual"), text);
+        Assert.assertTrue(text.contains("Enero - Diciembre 2019"), text);
+    }
+
+    @Test
+    public void testRangeReportTitle() throws Exception {
+
+        String text = render(new CustomPDFGenerator("range.test.com", YearMonth.of(2018, 11), YearMonth.of(2019, 2)));
+
+        Assert.assertTrue(text.contains("Resumen de uso del período"), text);
+        Assert.assertTrue(text.contains("Noviembre 2018 - Febrero 2019"), text);
+    }
+
+    @Test
+    public void testSingleMonthRangeReportTitle() throws Exception {
+
+        String text = render(new CustomPDFGenerator("month.test.com", YearMonth.of(2019, 3), YearMonth.of(2019, 3)));
+
+        Assert.assertTrue(text.contains("Resumen de uso mensual"), text);
+        Assert.assertTrue(text.contains("Marzo 2019"), text);
+    }
+
+    @Test
+    public void testRangeReportReusesRowsOfTopNMonthlyReport() throws Exception {
+
+        int queriesBefore = queries.get();
+        System.setProperty(ReportConfig.REPORT_TOP_N, "1");
+        try {
+            String text = render(new CustomPDFGenerator("2019", "05", "topn.test.com", null));
+            Assert.assertTrue(text.contains("Otros"), text);
+        } finally {
+            System.clearProperty(ReportConfig.REPORT_TOP_N);
+        }
+        Assert.assertEquals(queries.get(), queriesBefore + 1);
+
+        String text = render(new CustomPDFGenerator("topn.test.com", YearMonth.of(2019, 5), YearMonth.of(2019, 5)));
+
+        Assert.assertEquals(queries.get(), queriesBefore + 1);
+        Assert.assertTrue(text.contains("Weather"), text);
+    }
+
+    private static String render(CustomPDFGenerator generator) throws Exception {
+
+        try (InputStream in = generator.generateMonthlyRequestSummaryPDF();
+                PDDocument document = PDDocument.load(in)) {
+            return new PDFTextStripper().getText(document);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MonthlySnapshotTest {
+
+    private Path file;
+
+    @BeforeMethod
+    public void createFile() throws IOException {
+
+        file = Files.createTempFile("usage-", ".snapshot");
+    }
+
+    @AfterMethod
+    public void deleteFile() throws IOException {
+
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testTenantRowsRoundTrip() throws IOException {
+
+        MonthlySnapshot.write(file, 2020, 3, sampleRows());
+        MonthlySnapshot snapshot = MonthlySnapshot.open(file);
+
+        Assert.assertEquals(snapshot.getYear(), 2020);
+        Assert.assertEquals(snapshot.getMonth(), 3);
+        Assert.assertTrue(snapshot.hasTenant("carbon.super"));
+        UsageRows rows = snapshot.getTenantRows("carbon.super");
+        Assert.assertEquals(rows.size(), 2);
+        assertRow(rows, 0, "PizzaShack", "1.0.0", "Default Application", "admin", 40);
+        assertRow(rows, 1, "Échange", "2.0", "Aplicación", "usuario", 2);
+        Assert.assertEquals(rows.getTotalRequestCount(), 42);
+        UsageRows other = snapshot.getTenantRows("wso2.com");
+        Assert.assertEquals(other.size(), 1);
+        assertRow(other, 0, "PizzaShack", "1.0.0", "Mobile", "admin", 7);
+    }
+
+    @Test
+    public void testMissingTenantHasNoRows() throws IOException {
+
+        MonthlySnapshot.write(file, 2020, 3, sampleRows());
+        MonthlySnapshot snapshot = MonthlySnapshot.open(file);
+
+        Assert.assertFalse(snapshot.hasTenant("missing.com"));
+        Assert.assertEquals(snapshot.getTenantRows("missing.com").size(), 0);
+    }
+
+    @Test
+    public void testAllTenantRowsKeepOrder() throws IOException {
+
+        MonthlySnapshot.write(file, 2020, 3, sampleRows());
+        Map<String, UsageRows> rowsByTenant = MonthlySnapshot.open(file).getAllTenantRows();
+
+        Assert.assertEquals(new ArrayList<>(rowsByTenant.keySet()), Arrays.asList("carbon.super", "wso2.com", "empty.com"));
+        assertRow(rowsByTenant.get("carbon.super"), 1, "Échange", "2.0", "Aplicación", "usuario", 2);
+        assertRow(rowsByTenant.get("wso2.com"), 0, "PizzaShack", "1.0.0", "Mobile", "admin", 7);
+        Assert.assertEquals(rowsByTenant.get("empty.com").size(), 0);
+    }
+
+    @Test
+    public void testEmptySnapshot() throws IOException {
+
+        MonthlySnapshot.write(file, 2020, 3, new LinkedHashMap<String, UsageRows>());
+
+        Assert.assertTrue(MonthlySnapshot.open(file).getAllTenantRows().isEmpty());
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Not a report snapshot.*")
+    public void testBadMagicIsRejected() throws IOException {
+
+        MonthlySnapshot.write(file, 2020, 3, sampleRows());
+        overwriteInt(0, 0x25504446);
+
+        MonthlySnapshot.open(file);
+    }
+
+    @Test(expectedExceptions = IOException.class,
+            expectedExceptionsMessageRegExp = "Unsupported report snapshot version 2 .*")
+    public void testOtherVersionIsRejected() throws IOException {
+
+        MonthlySnapshot.write(file, 2020, 3, sampleRows());
+        overwriteInt(4, MonthlySnapshot.FORMAT_VERSION + 1);
+
+        MonthlySnapshot.open(file);
+    }
+
+    @Test(expectedExceptions = IOException.class,
+            expectedExceptionsMessageRegExp = "Truncated or corrupt report snapshot.*")
+    public void testTruncatedFileIsRejected() throws IOException {
+
+        MonthlySnapshot.write(file, 2020, 3, sampleRows());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        MonthlySnapshot.open(file);
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Not a report snapshot.*")
+    public void testShortFileIsRejected() throws IOException {
+
+        Files.write(file, new byte[] { 'C', 'P', 'D', 'S' });
+
+        MonthlySnapshot.open(file);
+    }
+
+    private static Map<String, UsageRows> sampleRows() {
+
+        Map<String, UsageRows> rowsByTenant = new LinkedHashMap<>();
+        UsageRows superTenant = new UsageRows();
+        superTenant.add("PizzaShack", "1.0.0", "Default Application", "admin", 40);
+        superTenant.add("Échange", "2.0", "Aplicación", "usuario", 2);
+        rowsByTenant.put("carbon.super", superTenant);
+        UsageRows tenant = new UsageRows();
+        tenant.add("PizzaShack", "1.0.0", "Mobile", "admin", 7);
+        rowsByTenant.put("wso2.com", tenant);
+        rowsByTenant.put("empty.com", new UsageRows());
+        return rowsByTenant;
+    }
+
+    private static void assertRow(UsageRows rows, int index, String apiName, String apiVersion,
+            String applicationName, String applicationOwner, long requestCount) {
+
+        Assert.assertEquals(rows.getApiName(index), apiName);
+        Assert.assertEquals(rows.getApiVersion(index), apiVersion);
+        Assert.assertEquals(rows.getApplicationName(index), applicationName);
+        Assert.assertEquals(rows.getApplicationOwner(index), applicationOwner);
+        Assert.assertEquals(rows.getRequestCount(index), requestCount);
+    }
+
+    private void overwriteInt(long position, int value) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            buffer.putInt(value).flip();
+            channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class OnDemandQueryTemplateTest {
+
+    @Test
+    public void testPlainValueIsSingleQuoted() {
+
+        Assert.assertEquals(OnDemandQueryTemplate.quote("tenant", "carbon.super"), "'carbon.super'");
+        Assert.assertEquals(OnDemandQueryTemplate.quote("tenant", ""), "''");
+    }
+
+    @Test
+    public void testSingleQuoteIsDoubleQuoted() {
+
+        Assert.assertEquals(OnDemandQueryTemplate.quote("tenant", "o'neil.com"), "\"o'neil.com\"");
+    }
+
+    @Test
+    public void testDoubleQuoteIsTripleQuoted() {
+
+        Assert.assertEquals(OnDemandQueryTemplate.quote("tenant", "a\"b"), "\"\"\"a\"b\"\"\"");
+        Assert.assertEquals(OnDemandQueryTemplate.quote("tenant", "\"a"), "\"\"\"\"a\"\"\"");
+    }
+
+    @Test
+    public void testBothQuotesAreTripleQuoted() {
+
+        Assert.assertEquals(OnDemandQueryTemplate.quote("tenant", "a'b\"c"), "\"\"\"a'b\"c\"\"\"");
+        Assert.assertEquals(OnDemandQueryTemplate.quote("tenant", "a'\"\"b"), "\"\"\"a'\"\"b\"\"\"");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTripleQuoteIsRejected() {
+
+        OnDemandQueryTemplate.quote("tenant", "a\"\"\"b");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTrailingDoubleQuoteWithSingleQuoteIsRejected() {
+
+        OnDemandQueryTemplate.quote("tenant", "a'b\"");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTrailingDoubleQuoteIsRejected() {
+
+        OnDemandQueryTemplate.quote("tenant", "ab\"");
+    }
+
+    @Test
+    public void testControlCharactersAreRejected() {
+
+        for (String value : new String[] { "a\nb", "a\rb", "\tab", "ab\u0000", "a\u001fb" }) {
+            try {
+                OnDemandQueryTemplate.quote("tenant", value);
+                Assert.fail("Accepted a control character in " + value);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNullIsRejected() {
+
+        OnDemandQueryTemplate.quote("tenant", null);
+    }
+
+    @Test
+    public void testBindReplacesEveryParameter() {
+
+        OnDemandQueryTemplate template = OnDemandQueryTemplate.compile("a ${x} b ${y}${x}");
+
+        Assert.assertEquals(template.bind("1", "o'k", "3"), "a '1' b \"o'k\"'3'");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBindRejectsWrongNumberOfValues() {
+
+        OnDemandQueryTemplate.compile("a ${x} b ${y}").bind("1");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCompileRejectsUnclosedParameter() {
+
+        OnDemandQueryTemplate.compile("a ${x b");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCompileRejectsUnnamedParameter() {
+
+        OnDemandQueryTemplate.compile("a ${} b");
+    }
+
+    @Test
+    public void testQueriesMatchTheConcatenatedOnes() {
+
+        String tenant = "carbon.super";
+        String year = "2020";
+        String month = "03";
+        String date = year + "-" + month;
+        String tenantQuery = "from ApiUserPerAppAgg on apiCreatorTenantDomain==" + "\'" + tenant
+                + "\'" + " within '" + date + "-** **:**:**' per \"months\" select apiName, apiVersion, "
+                + "applicationName, applicationOwner, sum(totalRequestCount) as " + "RequestCount group by "
+                + "apiName, apiVersion, applicationName, applicationOwner";
+        String allTenantsQuery = "from ApiUserPerAppAgg within '" + year + "-" + month + "-** **:**:**' per "
+                + "\"months\" select apiCreatorTenantDomain, apiName, apiVersion, applicationName, applicationOwner, "
+                + "sum(totalRequestCount) as RequestCount group by apiCreatorTenantDomain, apiName, apiVersion, "
+                + "applicationName, applicationOwner order by RequestCount desc";
+        String tenantsQuery = "from ApiUserPerAppAgg within '" + year + "-" + month + "-** **:**:**' per \"months\" "
+                + "select apiCreatorTenantDomain group by apiCreatorTenantDomain";
+
+        Assert.assertEquals(ReportQueries.tenantUsage(year, month, tenant, false), tenantQuery);
+        Assert.assertEquals(ReportQueries.tenantUsage(year, month, tenant, true),
+                tenantQuery + " order by RequestCount desc");
+        Assert.assertEquals(ReportQueries.allTenantsUsage(year, month), allTenantsQuery);
+        Assert.assertEquals(ReportQueries.tenants(year, month), tenantsQuery);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPeriodMustBeNumeric() {
+
+        ReportQueries.tenants("2020", "03' or '1");
+    }
+}
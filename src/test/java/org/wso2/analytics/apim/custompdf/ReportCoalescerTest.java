@@ -0,0 +1,288 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.analytics.apim.rest.api.report.exception.PDFReportException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReportCoalescerTest {
+
+    private static final ReportCacheKey KEY = new ReportCacheKey("carbon.super", 2020, 3, "2");
+    private static final byte[] REPORT = "%PDF-1.4 report".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void testConcurrentRequestsShareOneGeneration() throws Exception {
+
+        ReportCoalescer coalescer = new ReportCoalescer();
+        BlockingGeneration generation = new BlockingGeneration();
+        Request leader = Request.start(coalescer, generation);
+        generation.awaitCalls(1);
+        Request first = Request.startWaiting(coalescer, generation);
+        Request second = Request.startWaiting(coalescer, generation);
+        Assert.assertEquals(coalescer.getInFlightCount(), 1);
+
+        generation.release.countDown();
+
+        Assert.assertEquals(leader.awaitBytes(), REPORT);
+        Assert.assertEquals(first.awaitBytes(), REPORT);
+        Assert.assertEquals(second.awaitBytes(), REPORT);
+        Assert.assertEquals(generation.calls.get(), 1);
+        Assert.assertEquals(coalescer.getGeneratedCount(), 1);
+        Assert.assertEquals(coalescer.getCoalescedCount(), 2);
+        Assert.assertEquals(coalescer.getInFlightCount(), 0);
+    }
+
+    @Test
+    public void testFailureIsPropagatedToAllWaiters() throws Exception {
+
+        ReportCoalescer coalescer = new ReportCoalescer();
+        BlockingGeneration generation = new BlockingGeneration();
+        generation.failure = new PDFReportException("boom");
+        Request leader = Request.start(coalescer, generation);
+        generation.awaitCalls(1);
+        Request first = Request.startWaiting(coalescer, generation);
+        Request second = Request.startWaiting(coalescer, generation);
+
+        generation.release.countDown();
+
+        Assert.assertSame(leader.awaitFailure(), generation.failure);
+        Assert.assertSame(first.awaitFailure().getCause(), generation.failure);
+        Assert.assertSame(second.awaitFailure().getCause(), generation.failure);
+        Assert.assertEquals(generation.calls.get(), 1);
+        Assert.assertEquals(coalescer.getInFlightCount(), 0);
+
+        // a failure is not remembered, the next request generates again.
+        generation.failure = null;
+        Assert.assertEquals(Request.start(coalescer, generation).awaitBytes(), REPORT);
+        Assert.assertEquals(generation.calls.get(), 2);
+    }
+
+    @Test
+    public void testWaiterTakesOverFromCancelledLeader() throws Exception {
+
+        ReportCoalescer coalescer = new ReportCoalescer();
+        BlockingGeneration generation = new BlockingGeneration();
+        Request leader = Request.start(coalescer, generation);
+        generation.awaitCalls(1);
+        Request waiter = Request.startWaiting(coalescer, generation);
+
+        leader.interrupt();
+
+        Assert.assertTrue(leader.awaitFailure().getCause() instanceof IOException);
+        // the waiter is not failed but generates the report itself, which no longer blocks once released.
+        generation.awaitCalls(2);
+        generation.release.countDown();
+        Assert.assertEquals(waiter.awaitBytes(), REPORT);
+        Assert.assertEquals(coalescer.getGeneratedCount(), 1);
+        Assert.assertEquals(coalescer.getCoalescedCount(), 0);
+        Assert.assertEquals(coalescer.getInFlightCount(), 0);
+    }
+
+    @Test
+    public void testInterruptedWaiterDoesNotAffectOthers() throws Exception {
+
+        ReportCoalescer coalescer = new ReportCoalescer();
+        BlockingGeneration generation = new BlockingGeneration();
+        Request leader = Request.start(coalescer, generation);
+        generation.awaitCalls(1);
+        Request interrupted = Request.startWaiting(coalescer, generation);
+        Request other = Request.startWaiting(coalescer, generation);
+
+        interrupted.interrupt();
+
+        Assert.assertTrue(interrupted.awaitFailure().getCause() instanceof InterruptedException);
+        Assert.assertTrue(interrupted.interruptedAfterwards);
+        generation.release.countDown();
+        Assert.assertEquals(leader.awaitBytes(), REPORT);
+        Assert.assertEquals(other.awaitBytes(), REPORT);
+        Assert.assertEquals(generation.calls.get(), 1);
+    }
+
+    @Test
+    public void testEmptyReportIsSharedAsNull() throws Exception {
+
+        ReportCoalescer coalescer = new ReportCoalescer();
+        BlockingGeneration generation = new BlockingGeneration();
+        generation.empty = true;
+        Request leader = Request.start(coalescer, generation);
+        generation.awaitCalls(1);
+        Request waiter = Request.startWaiting(coalescer, generation);
+
+        generation.release.countDown();
+
+        Assert.assertNull(leader.awaitBytes());
+        Assert.assertNull(waiter.awaitBytes());
+    }
+
+    @Test
+    public void testFileIsDeletedWhenLastStreamIsClosed() throws Exception {
+
+        ReportCoalescer coalescer = new ReportCoalescer();
+        BlockingGeneration generation = new BlockingGeneration();
+        generation.file = Files.createTempFile("custompdf-", ".pdf");
+        Files.write(generation.file, REPORT);
+        Request leader = Request.start(coalescer, generation);
+        generation.awaitCalls(1);
+        Request waiter = Request.startWaiting(coalescer, generation);
+        generation.release.countDown();
+        InputStream leaderStream = leader.awaitStream();
+        InputStream waiterStream = waiter.awaitStream();
+
+        Assert.assertEquals(IOUtils.toByteArray(leaderStream), REPORT);
+        leaderStream.close();
+        leaderStream.close();
+        Assert.assertTrue(Files.exists(generation.file), "deleted while a stream is open");
+        Assert.assertEquals(IOUtils.toByteArray(waiterStream), REPORT);
+        waiterStream.close();
+        Assert.assertFalse(Files.exists(generation.file), "not deleted after the last stream was closed");
+    }
+
+    /**
+     * Generation that blocks until released, counting its calls.
+     */
+    private static final class BlockingGeneration implements ReportCoalescer.Generation {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile PDFReportException failure;
+        private volatile boolean empty;
+        private volatile Path file;
+
+        @Override
+        public InputStream generate() throws IOException, PDFReportException {
+
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Generation interrupted.", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (empty) {
+                return null;
+            }
+            return file != null ? new TempFileInputStream(file) : new ReportBytesInputStream(REPORT);
+        }
+
+        private void awaitCalls(int count) throws InterruptedException {
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (calls.get() < count) {
+                Assert.assertTrue(System.nanoTime() < deadline, "generation was not called");
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * Request for the report on a thread of its own.
+     */
+    private static final class Request extends Thread {
+
+        private final ReportCoalescer coalescer;
+        private final ReportCoalescer.Generation generation;
+        private volatile InputStream result;
+        private volatile PDFReportException failure;
+        private volatile boolean interruptedAfterwards;
+
+        private Request(ReportCoalescer coalescer, ReportCoalescer.Generation generation) {
+
+            this.coalescer = coalescer;
+            this.generation = generation;
+            setDaemon(true);
+        }
+
+        private static Request start(ReportCoalescer coalescer, ReportCoalescer.Generation generation) {
+
+            Request request = new Request(coalescer, generation);
+            request.start();
+            return request;
+        }
+
+        /**
+         * Starts a request and returns once it waits for the generation in flight.
+         */
+        private static Request startWaiting(ReportCoalescer coalescer, ReportCoalescer.Generation generation)
+                throws InterruptedException {
+
+            Request request = start(coalescer, generation);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (request.getState() != State.WAITING) {
+                Assert.assertTrue(System.nanoTime() < deadline, "request did not wait");
+                Thread.sleep(1);
+            }
+            return request;
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                result = coalescer.generate(KEY, generation);
+            } catch (PDFReportException e) {
+                failure = e;
+            }
+            interruptedAfterwards = isInterrupted();
+        }
+
+        private InputStream awaitStream() throws InterruptedException {
+
+            join(TimeUnit.SECONDS.toMillis(10));
+            Assert.assertFalse(isAlive(), "request did not finish");
+            if (failure != null) {
+                throw new AssertionError("request failed", failure);
+            }
+            return result;
+        }
+
+        private byte[] awaitBytes() throws InterruptedException, IOException {
+
+            InputStream in = awaitStream();
+            if (in == null) {
+                return null;
+            }
+            try {
+                return IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        private PDFReportException awaitFailure() throws InterruptedException {
+
+            join(TimeUnit.SECONDS.toMillis(10));
+            Assert.assertFalse(isAlive(), "request did not finish");
+            Assert.assertNotNull(failure, "request did not fail");
+            return failure;
+        }
+    }
+}
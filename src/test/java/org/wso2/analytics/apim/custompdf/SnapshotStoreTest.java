@@ -0,0 +1,138 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SnapshotStoreTest {
+
+    private Path directory;
+    private SnapshotStore store;
+
+    @BeforeMethod
+    public void createStore() throws IOException {
+
+        directory = Files.createTempDirectory("custompdf-snapshots");
+        store = new SnapshotStore(directory);
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testInvalidatedTenantIsNoLongerServed() throws IOException {
+
+        Assert.assertTrue(store.save(2020, 3, rows("a.com", "b.com")));
+
+        store.invalidate("a.com", 2020, 3);
+
+        Assert.assertNull(store.getTenantRows("a.com", 2020, 3));
+        Assert.assertEquals(store.getTenantRows("b.com", 2020, 3).size(), 1);
+        Assert.assertNull(store.getAllTenantRows(2020, 3));
+        Assert.assertTrue(Files.exists(directory.resolve("usage-2020-03.snapshot")));
+    }
+
+    @Test
+    public void testInvalidationSurvivesRestart() throws IOException {
+
+        store.save(2020, 3, rows("a.com", "b.com"));
+        store.invalidate("a.com", 2020, 3);
+
+        SnapshotStore restarted = new SnapshotStore(directory);
+
+        Assert.assertNull(restarted.getTenantRows("a.com", 2020, 3));
+        Assert.assertEquals(restarted.getTenantRows("b.com", 2020, 3).size(), 1);
+    }
+
+    @Test
+    public void testTenantWithoutUsageCanBeInvalidated() throws IOException {
+
+        store.save(2020, 3, rows("a.com"));
+        Assert.assertEquals(store.getTenantRows("late.com", 2020, 3).size(), 0);
+
+        store.invalidate("late.com", 2020, 3);
+
+        Assert.assertNull(store.getTenantRows("late.com", 2020, 3));
+        Assert.assertEquals(store.getTenantRows("a.com", 2020, 3).size(), 1);
+    }
+
+    @Test
+    public void testSaveClearsInvalidations() throws IOException {
+
+        store.save(2020, 3, rows("a.com", "b.com"));
+        store.invalidate("a.com", 2020, 3);
+
+        store.save(2020, 3, rows("a.com", "b.com"));
+
+        Assert.assertEquals(store.getTenantRows("a.com", 2020, 3).size(), 1);
+        Assert.assertEquals(store.getAllTenantRows(2020, 3).size(), 2);
+        Assert.assertFalse(Files.exists(directory.resolve("usage-2020-03.invalidated")));
+    }
+
+    @Test
+    public void testInvalidateTenantOnlyMarksMonthsWithItsUsage() throws IOException {
+
+        store.save(2020, 3, rows("a.com", "b.com"));
+        store.save(2020, 4, rows("b.com"));
+
+        store.invalidateTenant("a.com");
+
+        Assert.assertNull(store.getTenantRows("a.com", 2020, 3));
+        Assert.assertNotNull(store.getAllTenantRows(2020, 4));
+        Assert.assertFalse(Files.exists(directory.resolve("usage-2020-04.invalidated")));
+    }
+
+    @Test
+    public void testInvalidateWithoutSnapshotDoesNothing() {
+
+        store.invalidate("a.com", 2020, 3);
+
+        Assert.assertFalse(Files.exists(directory.resolve("usage-2020-03.invalidated")));
+        Assert.assertNull(store.getTenantRows("a.com", 2020, 3));
+    }
+
+    private static Map<String, UsageRows> rows(String... tenants) {
+
+        Map<String, UsageRows> rowsByTenant = new LinkedHashMap<>();
+        for (String tenant : tenants) {
+            UsageRows rows = new UsageRows();
+            rows.add("PizzaShack", "1.0.0", "Default Application", "admin", 1);
+            rowsByTenant.put(tenant, rows);
+        }
+        return rowsByTenant;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TopNSelectorTest {
+
+    @Test
+    public void testKeepsLargestCountsInDescendingOrder() {
+
+        TopNSelector selector = offer(3, 5, 1, 9, 3, 7, 2);
+
+        Assert.assertEquals(selector.getSortedIndexes(), new int[] { 2, 4, 0 });
+        Assert.assertEquals(selector.getOthersRows(), 3);
+        Assert.assertEquals(selector.getOthersCount(), 6);
+    }
+
+    @Test
+    public void testEarlierRowsWinTies() {
+
+        TopNSelector selector = offer(2, 4, 4, 4, 4);
+
+        Assert.assertEquals(selector.getSortedIndexes(), new int[] { 0, 1 });
+        Assert.assertEquals(selector.getOthersRows(), 2);
+        Assert.assertEquals(selector.getOthersCount(), 8);
+    }
+
+    @Test
+    public void testTiesAreOrderedByPosition() {
+
+        TopNSelector selector = offer(4, 1, 6, 6, 2, 6);
+
+        Assert.assertEquals(selector.getSortedIndexes(), new int[] { 1, 2, 4, 3 });
+        Assert.assertEquals(selector.getOthersCount(), 1);
+    }
+
+    @Test
+    public void testFewerRowsThanLimitKeepsAll() {
+
+        TopNSelector selector = offer(5, 2, 8);
+
+        Assert.assertEquals(selector.getSortedIndexes(), new int[] { 1, 0 });
+        Assert.assertEquals(selector.getOthersRows(), 0);
+        Assert.assertEquals(selector.getOthersCount(), 0);
+    }
+
+    @Test
+    public void testSortedStreamKeepsItsOrder() {
+
+        long[] counts = new long[100];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = (counts.length - i) / 10;
+        }
+        TopNSelector selector = offer(25, counts);
+
+        int[] sorted = selector.getSortedIndexes();
+        for (int i = 0; i < sorted.length; i++) {
+            Assert.assertEquals(sorted[i], i);
+        }
+    }
+
+    private static TopNSelector offer(int limit, long... counts) {
+
+        TopNSelector selector = new TopNSelector(limit);
+        for (int i = 0; i < counts.length; i++) {
+            selector.offer(i, counts[i]);
+        }
+        return selector;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class UsageRowsTest {
+
+    @Test
+    public void testMergeSumsRowsAcrossDictionaries() {
+
+        UsageRows january = new UsageRows();
+        january.add("PizzaShack", "1.0.0", "Default", "admin", 10);
+        january.add("Weather", "2.0", "Mobile", "alice", 4);
+        // interned in the opposite order, so the same strings have other ids than in january.
+        UsageRows february = new UsageRows();
+        february.add("Weather", "2.0", "Mobile", "alice", 9);
+        february.add("PizzaShack", "1.0.0", "Default", "admin", 1);
+        february.add("PizzaShack", "1.0.0", "Default", "bob", 2);
+
+        UsageRows merged = UsageRows.merge(Arrays.asList(january, february), 0);
+
+        Assert.assertEquals(merged.size(), 3);
+        assertRow(merged, 0, "Weather", "2.0", "Mobile", "alice", 13);
+        assertRow(merged, 1, "PizzaShack", "1.0.0", "Default", "admin", 11);
+        assertRow(merged, 2, "PizzaShack", "1.0.0", "Default", "bob", 2);
+        Assert.assertEquals(merged.getTotalRequestCount(), 26);
+        Assert.assertFalse(merged.hasOthersRow());
+        // partials are not modified.
+        Assert.assertEquals(january.getRequestCount(0), 10);
+        Assert.assertEquals(february.size(), 3);
+    }
+
+    @Test
+    public void testMergeMatchesAllColumns() {
+
+        UsageRows rows = new UsageRows();
+        rows.add("A", "1", "app", "u", 1);
+        rows.add("A", "2", "app", "u", 1);
+        rows.add("A", "1", "other", "u", 1);
+        rows.add("A", "1", "app", "v", 1);
+        rows.add("A", "1", "app", "u", 1);
+
+        UsageRows merged = UsageRows.merge(Collections.singletonList(rows), 0);
+
+        Assert.assertEquals(merged.size(), 4);
+        assertRow(merged, 0, "A", "1", "app", "u", 2);
+    }
+
+    @Test
+    public void testMergeOfManyRowsAgreesWithMap() {
+
+        Map<String, Long> expected = new HashMap<>();
+        UsageRows[] partials = new UsageRows[3];
+        for (int p = 0; p < partials.length; p++) {
+            partials[p] = new UsageRows();
+            for (int i = 0; i < 2000; i++) {
+                int key = (i * (p + 1)) % 2500;
+                long count = key % 97 + p;
+                partials[p].add("api" + key % 50, "v" + key % 3, "app" + key, "owner" + key % 7, count);
+                String id = "api" + key % 50 + "/v" + key % 3 + "/app" + key + "/owner" + key % 7;
+                Long sum = expected.get(id);
+                expected.put(id, sum == null ? count : sum + count);
+            }
+        }
+
+        UsageRows merged = UsageRows.merge(Arrays.asList(partials), 0);
+
+        Assert.assertEquals(merged.size(), expected.size());
+        long total = 0;
+        for (int i = 0; i < merged.size(); i++) {
+            String id = merged.getApiName(i) + "/" + merged.getApiVersion(i) + "/" + merged.getApplicationName(i)
+                    + "/" + merged.getApplicationOwner(i);
+            Assert.assertEquals(merged.getRequestCount(i), (long) expected.get(id), id);
+            if (i > 0) {
+                Assert.assertTrue(merged.getRequestCount(i - 1) >= merged.getRequestCount(i));
+            }
+            total += merged.getRequestCount(i);
+        }
+        Assert.assertEquals(merged.getTotalRequestCount(), total);
+    }
+
+    @Test
+    public void testMergeWithLimitAddsOthers() {
+
+        UsageRows first = new UsageRows();
+        first.add("A", "1", "app", "u", 5);
+        first.add("B", "1", "app", "u", 3);
+        UsageRows second = new UsageRows();
+        second.add("C", "1", "app", "u", 4);
+        second.add("B", "1", "app", "u", 3);
+        second.add("D", "1", "app", "u", 1);
+
+        UsageRows merged = UsageRows.merge(Arrays.asList(first, second), 2);
+
+        Assert.assertEquals(merged.size(), 3);
+        assertRow(merged, 0, "B", "1", "app", "u", 6);
+        assertRow(merged, 1, "A", "1", "app", "u", 5);
+        assertRow(merged, 2, UsageRows.OTHERS_LABEL, "", "", "", 5);
+        Assert.assertTrue(merged.hasOthersRow());
+        Assert.assertEquals(merged.getTotalRequestCount(), 16);
+    }
+
+    @Test
+    public void testMergeWithLimitNotReachedHasNoOthers() {
+
+        UsageRows rows = new UsageRows();
+        rows.add("A", "1", "app", "u", 1);
+        rows.add("B", "1", "app", "u", 2);
+
+        UsageRows merged = UsageRows.merge(Collections.singletonList(rows), 2);
+
+        Assert.assertEquals(merged.size(), 2);
+        Assert.assertFalse(merged.hasOthersRow());
+        assertRow(merged, 0, "B", "1", "app", "u", 2);
+    }
+
+    @Test
+    public void testMergeKeepsFirstSeenKeyAmongTies() {
+
+        UsageRows first = new UsageRows();
+        first.add("A", "1", "app", "u", 2);
+        first.add("B", "1", "app", "u", 1);
+        UsageRows second = new UsageRows();
+        second.add("C", "1", "app", "u", 3);
+        second.add("B", "1", "app", "u", 2);
+
+        UsageRows merged = UsageRows.merge(Arrays.asList(first, second), 2);
+
+        assertRow(merged, 0, "B", "1", "app", "u", 3);
+        assertRow(merged, 1, "C", "1", "app", "u", 3);
+        assertRow(merged, 2, UsageRows.OTHERS_LABEL, "", "", "", 2);
+    }
+
+    @Test
+    public void testMergeOfNothingIsEmpty() {
+
+        Assert.assertEquals(UsageRows.merge(Collections.<UsageRows>emptyList(), 5).size(), 0);
+        Assert.assertEquals(UsageRows.merge(Collections.singletonList(new UsageRows()), 5).size(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeRejectsTopNRows() {
+
+        UsageRows rows = new UsageRows();
+        rows.add("A", "1", "app", "u", 2);
+        rows.add("B", "1", "app", "u", 1);
+
+        UsageRows.merge(Collections.singletonList(rows.top(1)), 0);
+    }
+
+    @Test
+    public void testTopKeepsLargestAndSumsUpOthers() {
+
+        UsageRows rows = new UsageRows();
+        rows.add("A", "1", "app", "u", 1);
+        rows.add("B", "1", "app", "u", 7);
+        rows.add("C", "1", "app", "u", 3);
+        rows.add("D", "1", "app", "u", 7);
+        rows.add("E", "1", "app", "u", 2);
+
+        UsageRows top = rows.top(3);
+
+        Assert.assertEquals(top.size(), 4);
+        assertRow(top, 0, "B", "1", "app", "u", 7);
+        assertRow(top, 1, "D", "1", "app", "u", 7);
+        assertRow(top, 2, "C", "1", "app", "u", 3);
+        assertRow(top, 3, UsageRows.OTHERS_LABEL, "", "", "", 3);
+        Assert.assertEquals(top.getTotalRequestCount(), rows.getTotalRequestCount());
+        String[] cells = new String[ReportRowSource.COLUMN_COUNT];
+        top.getRow(3, cells);
+        Assert.assertEquals(cells[0], "");
+        top.getRow(2, cells);
+        Assert.assertEquals(cells[0], "3)");
+    }
+
+    @Test
+    public void testTopWithoutLimitReturnsSameRows() {
+
+        UsageRows rows = new UsageRows();
+        rows.add("A", "1", "app", "u", 1);
+        rows.add("B", "1", "app", "u", 2);
+
+        Assert.assertSame(rows.top(0), rows);
+        Assert.assertSame(rows.top(2), rows);
+    }
+
+    @Test
+    public void testTrimmedCopiesRowsWithUnusedCapacity() {
+
+        UsageRows rows = new UsageRows();
+        rows.add("A", "1", "app", "u", 1);
+        rows.add("B", "1", "app", "u", 2);
+
+        UsageRows trimmed = rows.trimmed();
+
+        Assert.assertNotSame(trimmed, rows);
+        Assert.assertSame(trimmed.trimmed(), trimmed);
+        Assert.assertEquals(trimmed.size(), 2);
+        assertRow(trimmed, 0, "A", "1", "app", "u", 1);
+        assertRow(trimmed, 1, "B", "1", "app", "u", 2);
+        Assert.assertEquals(trimmed.getTotalRequestCount(), 3);
+        // the original rows can still be appended to.
+        rows.add("C", "1", "app", "u", 3);
+        Assert.assertEquals(rows.size(), 3);
+        Assert.assertEquals(trimmed.size(), 2);
+    }
+
+    private static void assertRow(UsageRows rows, int index, String apiName, String apiVersion,
+            String applicationName, String applicationOwner, long requestCount) {
+
+        Assert.assertEquals(rows.getApiName(index), apiName);
+        Assert.assertEquals(rows.getApiVersion(index), apiVersion);
+        Assert.assertEquals(rows.getApplicationName(index), applicationName);
+        Assert.assertEquals(rows.getApplicationOwner(index), applicationOwner);
+        Assert.assertEquals(rows.getRequestCount(index), requestCount);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.analytics.apim.custompdf;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class WeightedLruCacheTest {
+
+    @Test
+    public void testOversizedValueReplacesCachedValue() {
+
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(4, String::length, null);
+        cache.put("report", "old", 0);
+
+        cache.put("report", "too long", 0);
+
+        Assert.assertNull(cache.get("report"));
+        Assert.assertEquals(cache.getWeight(), 0);
+    }
+
+    @Test
+    public void testEldestEntryIsEvictedOverWeight() {
+
+        WeightedLruCache<String, String> cache = new WeightedLruCache<>(4, String::length, null);
+        cache.put("a", "aa", 0);
+        cache.put("b", "bb", 0);
+        cache.get("a");
+
+        cache.put("c", "cc", 0);
+
+        Assert.assertEquals(cache.get("a"), "aa");
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(cache.get("c"), "cc");
+        Assert.assertEquals(cache.getEvictions(), 1);
+    }
+}